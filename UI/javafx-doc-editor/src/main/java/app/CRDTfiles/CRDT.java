@@ -4,6 +4,15 @@ import java.util.*;
 
 public class CRDT {
     public static class CharacterId implements Comparable<CharacterId> {
+        private static final int USER_BITS = 31;
+        private static final long USER_MASK = (1L << USER_BITS) - 1;
+        // Largest timestamp that fits between the sign bit and the user ID
+        public static final long MAX_TIMESTAMP = (1L << (Long.SIZE - 1 - USER_BITS)) - 1;
+
+        // The root sentinel. Operations already use (-1, -1) to mean "no parent".
+        public static final CharacterId ROOT = new CharacterId(-1, -1);
+        public static final long ROOT_KEY = -1L;
+
         public final long timestamp;
         public final int userId;
 
@@ -28,9 +37,57 @@ public class CRDT {
             return this.timestamp == other.timestamp && this.userId == other.userId;
         }
 
+        /**
+         * Pack an ID into one long: timestamp in the 32 bits below the sign bit, userId in the
+         * low 31, so every non-negative int is a valid user ID. ROOT packs to -1.
+         * @throws IllegalArgumentException if the timestamp is negative or above MAX_TIMESTAMP,
+         *     or the user ID is negative; such an ID would alias another one
+         */
+        public static long pack(long timestamp, int userId) {
+            if (timestamp < 0 || timestamp > MAX_TIMESTAMP || userId < 0) {
+                if (timestamp == -1 && userId == -1) {
+                    return ROOT_KEY;
+                }
+                throw new IllegalArgumentException("Character ID out of range: [" + userId + "," + timestamp + "]");
+            }
+            return (timestamp << USER_BITS) | userId;
+        }
+
+        /**
+         * Whether an ID can be packed, i.e. is ROOT or within the ranges pack() accepts
+         */
+        public static boolean fits(long timestamp, int userId) {
+            return (timestamp >= 0 && timestamp <= MAX_TIMESTAMP && userId >= 0) || (timestamp == -1 && userId == -1);
+        }
+
+        public static long timestampOf(long key) {
+            // Arithmetic shift: ROOT's -1 stays -1
+            return key >> USER_BITS;
+        }
+
+        public static int userIdOf(long key) {
+            return key == ROOT_KEY ? -1 : (int) (key & USER_MASK);
+        }
+
+        public static CharacterId unpack(long key) {
+            return key == ROOT_KEY ? ROOT : new CharacterId(timestampOf(key), userIdOf(key));
+        }
+
+        /**
+         * Compare two packed IDs with the same ordering as compareTo
+         */
+        public static int compare(long a, long b) {
+            int cmp = Long.compare(timestampOf(b), timestampOf(a));
+            return cmp != 0 ? cmp : Integer.compare(userIdOf(a), userIdOf(b));
+        }
+
+        public long key() {
+            return pack(timestamp, userId);
+        }
+
         @Override
         public int hashCode() {
-            return Objects.hash(timestamp, userId);
+            return Long.hashCode(key());
         }
 
         @Override
@@ -39,36 +96,209 @@ public class CRDT {
         }
     }
 
-    public static class Node {
-        public final CharacterId id;
-        public final CharacterId parentId;
-        public final char value;
+    /**
+     * A run of characters from one author with consecutive timestamps: character i has the ID
+     * (timestamp + i, userId) and is the only child of character i - 1. Children of the run
+     * hang off its last character, so inserting after any other character splits the run
+     * first. Typed and pasted text costs one node per run instead of one per character, and
+     * the layout is kept small: IDs are packed longs, a leaf holds no child list, a single
+     * child is stored inline and the subtree end marker only exists once there are children.
+     */
+    public static class Node extends SequenceIndex.Entry {
+        final long key; // ID of the first character
+        final long parentKey; // parent of the first character
+        private char[] text;
+        private int length;
+        // Covers the whole run; deleting part of a run splits it first
         public boolean isDeleted;
-        public final List<Node> children = new ArrayList<>();
+        // null for a leaf, the child itself when there is one, a ChildList beyond that
+        private Object children;
+        // Marks the end of this node's subtree in the sequence index, created with the first child
+        SequenceIndex.Entry end;
 
         public Node(CharacterId id, CharacterId parentId, char value, boolean isDeleted) {
-            this.id = id;
-            this.parentId = parentId;
-            this.value = value;
+            this(id, parentId, String.valueOf(value), isDeleted);
+        }
+
+        public Node(CharacterId id, CharacterId parentId, CharSequence text, boolean isDeleted) {
+            this(id.key(), parentId != null ? parentId.key() : CharacterId.ROOT_KEY, toChars(text), text.length(), isDeleted);
+        }
+
+        Node(long key, long parentKey, char[] text, int length, boolean isDeleted) {
+            if (length == 0) {
+                throw new IllegalArgumentException("A node must hold at least one character");
+            }
+            this.key = key;
+            this.parentKey = parentKey;
+            this.text = text;
+            this.length = length;
             this.isDeleted = isDeleted;
         }
 
-        public void addChild(Node child) {
-            int i = 0;
-            // Modified ordering: CharacterId.compareTo has been updated so this works correctly
-            while (i < children.size() && children.get(i).id.compareTo(child.id) < 0) {
-                i++;
+        private static char[] toChars(CharSequence text) {
+            char[] chars = new char[text.length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = text.charAt(i);
+            }
+            return chars;
+        }
+
+        public CharacterId id() {
+            return CharacterId.unpack(key);
+        }
+
+        /**
+         * ID of the parent, or null for the root itself
+         */
+        public CharacterId parentId() {
+            return key == CharacterId.ROOT_KEY ? null : CharacterId.unpack(parentKey);
+        }
+
+        /**
+         * ID of the character at the given offset into the run
+         */
+        public CharacterId idAt(int offset) {
+            return offset == 0 ? id() : new CharacterId(CharacterId.timestampOf(key) + offset, CharacterId.userIdOf(key));
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int offset) {
+            return text[offset];
+        }
+
+        public String text() {
+            return new String(text, 0, length);
+        }
+
+        /**
+         * Whether the character with the given packed ID belongs to this run
+         */
+        boolean covers(long id) {
+            if (CharacterId.userIdOf(id) != CharacterId.userIdOf(key)) return false;
+            long offset = CharacterId.timestampOf(id) - CharacterId.timestampOf(key);
+            return offset >= 0 && offset < length;
+        }
+
+        long lastKey() {
+            return CharacterId.pack(CharacterId.timestampOf(key) + length - 1, CharacterId.userIdOf(key));
+        }
+
+        /**
+         * Whether a character with the given ID can extend this run in place: it must be the
+         * author's next timestamp, and nothing may hang off the current last character yet.
+         */
+        boolean canAppend(long id) {
+            return !isDeleted && children == null && key != CharacterId.ROOT_KEY
+                    && CharacterId.userIdOf(id) == CharacterId.userIdOf(key)
+                    && CharacterId.timestampOf(id) == CharacterId.timestampOf(key) + length;
+        }
+
+        void append(CharSequence more) {
+            if (length + more.length() > text.length) {
+                text = Arrays.copyOf(text, Math.max(length + more.length(), length + (length >> 1)));
+            }
+            for (int i = 0; i < more.length(); i++) {
+                text[length++] = more.charAt(i);
             }
-            children.add(i, child);
+        }
+
+        /**
+         * Cut the run after count characters. The rest becomes a new node that takes over
+         * this node's children and becomes its only child.
+         */
+        Node splitAfter(int count) {
+            Node tail = new Node(CharacterId.pack(CharacterId.timestampOf(key) + count, CharacterId.userIdOf(key)),
+                    CharacterId.pack(CharacterId.timestampOf(key) + count - 1, CharacterId.userIdOf(key)),
+                    Arrays.copyOfRange(text, count, length), length - count, isDeleted);
+            text = Arrays.copyOf(text, count);
+            length = count;
+            tail.children = children;
+            children = tail;
+            return tail;
+        }
+
+        public int childCount() {
+            if (children == null) return 0;
+            if (children instanceof Node) return 1;
+            return ((ChildList) children).size();
+        }
+
+        public Node child(int index) {
+            if (children instanceof ChildList) {
+                return ((ChildList) children).get(index);
+            }
+            if (children != null && index == 0) {
+                return (Node) children;
+            }
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + childCount());
+        }
+
+        /**
+         * Read-only view of the children in order
+         */
+        public List<Node> children() {
+            if (children == null) return Collections.emptyList();
+            if (children instanceof Node) return Collections.singletonList((Node) children);
+            return Collections.unmodifiableList((ChildList) children);
+        }
+
+        public int addChild(Node child) {
+            if (children == null) {
+                children = child;
+                return 0;
+            }
+            ChildList list;
+            if (children instanceof Node) {
+                // Second child: promote the inline child to a list
+                list = new ChildList();
+                list.add(0, (Node) children);
+                children = list;
+            } else {
+                list = (ChildList) children;
+            }
+
+            // Binary search for the first child that does not sort before the new one
+            // Modified ordering: CharacterId.compare follows compareTo, newest timestamps first
+            int low = 0;
+            int high = list.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (CharacterId.compare(list.get(mid).key, child.key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            list.add(low, child);
+            return low;
+        }
+
+        void clearChildren() {
+            children = null;
+        }
+
+        @Override
+        int weight() {
+            return isDeleted ? 0 : length;
         }
     }
 
-    private final Node root = new Node(null, null, '\0', false);
-    public final Map<CharacterId, Node> nodeMap = new HashMap<>();
-    final List<Node> flatOrderedNodes = new ArrayList<>();
+    // The root holds no character, so it is created as a permanent tombstone
+    private final Node root = new Node(CharacterId.ROOT, null, '\0', true);
+    public final NodeMap nodeMap = new NodeMap();
+    // Document order with visible counts, for O(log n) position <-> ID lookups
+    private final SequenceIndex sequence = new SequenceIndex();
+    // Materialized visible text, dropped whenever the document changes
+    private String cachedText = "";
 
     public CRDT() {
-        nodeMap.put(null, root);
+        nodeMap.put(CharacterId.ROOT_KEY, root);
+        root.end = new SequenceIndex.Entry();
+        sequence.append(root);
+        sequence.append(root.end);
     }
 
     /**
@@ -78,142 +308,376 @@ public class CRDT {
      * @param position The position at which to insert (0 = beginning)
      */
     public void insert(CharacterId id, char value, int position) {
+        insert(id, String.valueOf(value), position);
+    }
+
+    /**
+     * Insert a run of characters at a specific position; character i gets the ID
+     * (id.timestamp + i, id.userId)
+     */
+    public void insert(CharacterId id, CharSequence text, int position) {
         // Find the parent node based on position
         CharacterId parentId = getParentIdForPosition(position);
-        
-        // Create and store the new node
-        Node newNode = new Node(id, parentId, value, false);
-        nodeMap.put(id, newNode);
-        
-        // Add the new node to its parent
-        Node parentNode = nodeMap.get(parentId);
-        parentNode.addChild(newNode);
-        
-        // Invalidate the cached flattened structure
-        flatOrderedNodes.clear();
-    }
-    
+        insert(id, parentId, text);
+    }
+
+    /**
+     * Insert a character under an explicit parent, as received from a remote operation.
+     * If the parent is unknown the node is attached to the root.
+     */
+    public void insert(CharacterId id, CharacterId parentId, char value) {
+        insert(id, parentId, String.valueOf(value));
+    }
+
+    /**
+     * Insert a run of characters: the first one goes under parentId, and character i gets the
+     * ID (id.timestamp + i, id.userId) with character i - 1 as its parent. Inserting an ID
+     * that is already known does nothing, so a repeated insert is harmless; deleted
+     * characters come back through {@link #undelete} only.
+     * @return Whether the visible text changed
+     */
+    public boolean insert(CharacterId id, CharacterId parentId, CharSequence text) {
+        if (text.length() == 0) {
+            return false;
+        }
+        if (parentId == null) {
+            parentId = CharacterId.ROOT;
+        }
+        long key = id.key();
+        if (nodeMap.containsKey(key)) {
+            return false;
+        }
+
+        long parentKey = parentId.key();
+        Node parentNode = nodeMap.get(parentKey);
+        if (parentNode == null) {
+            parentNode = root;
+        } else if (parentNode.lastKey() != parentKey) {
+            // The parent is inside a run: cut the run right after it
+            split(parentNode, (int) (parentId.timestamp - CharacterId.timestampOf(parentNode.key)) + 1);
+        }
+
+        if (parentNode.canAppend(key)) {
+            // The common typing case: extend the parent's run
+            parentNode.append(text);
+            nodeMap.appended(parentNode);
+            sequence.refresh(parentNode);
+        } else {
+            // Create and store the new node
+            Node newNode = new Node(key, parentKey, Node.toChars(text), text.length(), false);
+            nodeMap.put(key, newNode);
+            attach(parentNode, newNode);
+        }
+        cachedText = null;
+        return true;
+    }
+
+    /**
+     * Add a node to its parent and to the sequence index
+     */
+    private void attach(Node parentNode, Node node) {
+        int index = parentNode.addChild(node);
+
+        // The node sits right before its next sibling, or at the end of its parent's subtree
+        SequenceIndex.Entry anchor;
+        if (index + 1 < parentNode.childCount()) {
+            anchor = parentNode.child(index + 1);
+        } else {
+            if (parentNode.end == null) {
+                // First child: until now the parent's subtree was just the parent itself
+                parentNode.end = new SequenceIndex.Entry();
+                sequence.insertAfter(parentNode, parentNode.end);
+            }
+            anchor = parentNode.end;
+        }
+        sequence.insertBefore(anchor, node);
+    }
+
+    /**
+     * Split a run after count characters and return the new node holding the rest
+     */
+    private Node split(Node node, int count) {
+        Node tail = node.splitAfter(count);
+        nodeMap.put(tail.key, tail);
+        // The old end marker now closes the tail's subtree, and the node gets a fresh one
+        // behind it, since the tail is now its only child
+        tail.end = node.end;
+        sequence.refresh(node);
+        sequence.insertAfter(node, tail);
+        node.end = new SequenceIndex.Entry();
+        sequence.insertAfter(tail.end != null ? tail.end : tail, node.end);
+        return tail;
+    }
+
+    /**
+     * The root node, under which a snapshot load links the top-level runs
+     */
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Drop every node but the root. Callers then link nodes in again through nodeMap and
+     * addChild, and finish with reindex().
+     */
+    void clear() {
+        nodeMap.clear();
+        nodeMap.put(CharacterId.ROOT_KEY, root);
+        root.clearChildren();
+    }
+
+    /**
+     * Lay the sequence index out again in one walk over the tree, after nodes were linked in
+     * directly rather than through insert()
+     */
+    void reindex() {
+        sequence.clear();
+        walk(root, new TreeVisitor() {
+            @Override
+            public void enter(Node node, int depth) {
+                sequence.append(node);
+            }
+
+            @Override
+            public void exit(Node node, int depth) {
+                if (node.childCount() > 0 || node == root) {
+                    if (node.end == null) {
+                        node.end = new SequenceIndex.Entry();
+                    }
+                    sequence.append(node.end);
+                }
+            }
+        });
+        cachedText = null;
+    }
+
     /**
      * Get the parent ID for inserting at a specific position
      */
     private CharacterId getParentIdForPosition(int position) {
         if (position <= 0) {
-            // If inserting at the beginning, parent is root (null)
-            return null;
+            // If inserting at the beginning, parent is root
+            return CharacterId.ROOT;
         }
-        
-        // Get all visible characters in order
-        List<Node> visibleNodes = getOrderedVisibleNodes();
-        
+
         // If position is beyond the end, use the last character as parent
-        if (position >= visibleNodes.size()) {
-            return visibleNodes.isEmpty() ? null : visibleNodes.get(visibleNodes.size() - 1).id;
+        int length = sequence.visibleCount();
+        if (position >= length) {
+            return length == 0 ? CharacterId.ROOT : getCharacterIdAtPosition(length - 1);
         }
-        
+
         // Otherwise return the ID of the character at position-1
-        return visibleNodes.get(position - 1).id;
+        return getCharacterIdAtPosition(position - 1);
     }
 
     /**
-     * Get all visible nodes in document order
+     * Number of visible characters in the document
      */
-    public List<Node> getOrderedVisibleNodes() {
-        if (!flatOrderedNodes.isEmpty()) {
-            return flatOrderedNodes;
-        }
-        
-        List<Node> result = new ArrayList<>();
-        flattenTree(root, result);
-        
-        this.flatOrderedNodes.clear();
-        this.flatOrderedNodes.addAll(result);
-        
-        return result;
+    public int getVisibleLength() {
+        return sequence.visibleCount();
+    }
+
+    public boolean delete(CharacterId id) {
+        return delete(id, 1) == 1;
     }
-    
+
+    /**
+     * Delete count characters with consecutive IDs starting at id, as carried by a delete
+     * operation for a run
+     * @return How many of them were visible before
+     */
+    public int delete(CharacterId id, int count) {
+        return setDeleted(id, count, true);
+    }
+
     /**
-     * Recursively flatten the tree into a list of visible nodes
+     * Make count characters with consecutive IDs starting at id visible again, as an undo of
+     * their delete does
+     * @return How many of them were deleted before
      */
-    private void flattenTree(Node node, List<Node> result) {
-        for (Node child : node.children) {
-            if (!child.isDeleted) {
-                result.add(child);
+    public int undelete(CharacterId id, int count) {
+        return setDeleted(id, count, false);
+    }
+
+    /**
+     * Mark count consecutive IDs of one author deleted or visible again, splitting runs so the
+     * flag only covers those characters. Unknown IDs are skipped.
+     */
+    private int setDeleted(CharacterId id, int count, boolean deleted) {
+        if (id == null || id.userId < 0) {
+            return 0;
+        }
+        int changed = 0;
+        int i = 0;
+        while (i < count) {
+            Node node = nodeMap.get(CharacterId.pack(id.timestamp + i, id.userId));
+            if (node == null) {
+                i++;
+                continue;
+            }
+            int offset = (int) (id.timestamp + i - CharacterId.timestampOf(node.key));
+            int span = Math.min(node.length - offset, count - i);
+            if (node.isDeleted != deleted) {
+                if (offset > 0) {
+                    node = split(node, offset);
+                }
+                if (span < node.length) {
+                    split(node, span);
+                }
+                node.isDeleted = deleted;
+                sequence.refresh(node);
+                changed += span;
             }
-            flattenTree(child, result);
+            i += span;
         }
+        if (changed > 0) {
+            cachedText = null;
+        }
+        return changed;
     }
 
-    public boolean delete(CharacterId id) {
+    /**
+     * Parent of the character with the given ID, or null if it is unknown. Inside a run this
+     * is simply the character before it.
+     */
+    public CharacterId getParentId(CharacterId id) {
         Node node = nodeMap.get(id);
-        if (node == null || node.isDeleted) {
-            return false; // not found or already deleted
+        if (node == null) {
+            return null;
         }
-        node.isDeleted = true;
-        // Invalidate the cached flattened structure
-        flatOrderedNodes.clear();
-        return true;
+        return id.key() == node.key ? node.parentId() : new CharacterId(id.timestamp - 1, id.userId);
     }
 
-    /* 
     public String getVisibleString() {
-        StringBuilder sb = new StringBuilder();
-        for (Node node : getOrderedVisibleNodes()) {
-            sb.append(node.value);
+        if (cachedText == null) {
+            cachedText = readVisible(0, sequence.visibleCount());
         }
-        return sb.toString();
+        return cachedText;
     }
-    */
 
-    public String getVisibleString() {
-        StringBuilder sb = new StringBuilder();
-        
-        // Start from the root node and traverse the tree
-        traverseVisibleString(nodeMap.get(null), sb);
-        
-        return sb.toString();
+    /**
+     * Live read-only view of the visible text. length() is O(1) and charAt() is O(log n),
+     * so callers that only need a few characters never materialize the whole document.
+     */
+    public CharSequence getVisibleText() {
+        return visibleText;
     }
 
-    private void traverseVisibleString(Node node, StringBuilder sb) {
-        if (node == null) return;
-        
-        // If not root and not deleted, add to string
-        if (node.id != null && !node.isDeleted) {
-            sb.append(node.value);
+    /**
+     * Visible character at the given position in O(log n)
+     */
+    public char charAt(int pos) {
+        Node node = (Node) sequence.select(pos);
+        if (node == null) {
+            throw new IndexOutOfBoundsException("Position " + pos + " outside document of length " + sequence.visibleCount());
         }
-        
-        // For each child, traverse recursively
-        for (Node child : node.children) {
-            traverseVisibleString(child, sb);
+        return node.text[pos - sequence.rank(node)];
+    }
+
+    /**
+     * Collect up to count visible characters in document order, starting at the given position
+     */
+    private String readVisible(int start, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        Node first = (Node) sequence.select(start);
+        if (first == null) {
+            return "";
+        }
+        int offset = start - sequence.rank(first);
+        for (SequenceIndex.Entry e = first; e != null && sb.length() < count; e = SequenceIndex.next(e)) {
+            if (e.weight() > 0) {
+                Node node = (Node) e;
+                int take = Math.min(node.length - offset, count - sb.length());
+                sb.append(node.text, offset, take);
+                offset = 0;
+            }
         }
+        return sb.toString();
     }
 
+    private final CharSequence visibleText = new CharSequence() {
+        @Override
+        public int length() {
+            return sequence.visibleCount();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return CRDT.this.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") outside document of length " + length());
+            }
+            return start == end ? "" : readVisible(start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return getVisibleString();
+        }
+    };
+
     public CharacterId getCharacterIdAtPosition(int pos) {
-        List<Node> visibleNodes = getOrderedVisibleNodes();
-        if (pos < 0 || pos >= visibleNodes.size()) return null;
-        return visibleNodes.get(pos).id;
+        Node node = (Node) sequence.select(pos);
+        return node != null ? node.idAt(pos - sequence.rank(node)) : null;
     }
 
     public int getPositionForCharacterId(CharacterId id) {
-        List<Node> visibleNodes = getOrderedVisibleNodes();
-        for (int i = 0; i < visibleNodes.size(); i++) {
-            if (visibleNodes.get(i).id.equals(id)) {
-                return i; // Return the position of the matching node
-            }
+        Node node = nodeMap.get(id);
+        if (node == null || node.isDeleted) {
+            return -1; // Return -1 if the CharacterId is not found
         }
-        return -1; // Return -1 if the CharacterId is not found
+        return sequence.rank(node) + (int) (id.timestamp - CharacterId.timestampOf(node.key));
     }
 
-    public void printTree() {
-        printSubtree(root, 0);
-    }
+    /**
+     * Callback for walk(). enter() sees nodes in document order; exit() runs once a node's
+     * last descendant has been visited.
+     */
+    interface TreeVisitor {
+        void enter(Node node, int depth);
 
-    private void printSubtree(Node node, int depth) {
-        String indent = "  ".repeat(depth);
-        if (node != root) {
-            System.out.println(indent + "- " + node.value + " " + node.id + (node.isDeleted ? " (deleted)" : ""));
+        default void exit(Node node, int depth) {
         }
-        for (Node child : node.children) {
-            printSubtree(child, depth + 1);
+    }
+
+    /**
+     * Depth-first walk of the tree under start using an explicit stack, so chains as deep
+     * as the document itself never overflow the call stack.
+     */
+    void walk(Node start, TreeVisitor visitor) {
+        Node[] path = new Node[16];
+        int[] nextChild = new int[16];
+        int depth = 0;
+        path[0] = start;
+        visitor.enter(start, 0);
+        while (depth >= 0) {
+            Node node = path[depth];
+            if (nextChild[depth] < node.childCount()) {
+                Node child = node.child(nextChild[depth]++);
+                if (++depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    nextChild = Arrays.copyOf(nextChild, depth * 2);
+                }
+                path[depth] = child;
+                nextChild[depth] = 0;
+                visitor.enter(child, depth);
+            } else {
+                visitor.exit(node, depth);
+                path[depth] = null;
+                depth--;
+            }
         }
     }
+
+    public void printTree() {
+        walk(root, (node, depth) -> {
+            if (node != root) {
+                System.out.println("  ".repeat(depth) + "- " + node.text() + " " + node.id() + (node.isDeleted ? " (deleted)" : ""));
+            }
+        });
+    }
 }
\ No newline at end of file
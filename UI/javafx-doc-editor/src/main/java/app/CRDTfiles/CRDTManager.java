@@ -1,20 +1,29 @@
 package app.CRDTfiles;
 import org.springframework.messaging.simp.stomp.StompSession;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import app.Operation;
 import app.Client.ClientWebsocket;
 
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
+import java.util.TreeMap;
 
 public class CRDTManager {
     private final CRDT crdt;
     private final int localUserId;
     private final Stack<Operation> undoStack = new Stack<>();
     private final Stack<Operation> redoStack = new Stack<>();
+    // Source of character timestamps; advanced by local edits and by everything received
+    private final LamportClock clock = new LamportClock();
+    // Longest run sent in one operation, so a big paste goes out as frames of moderate size,
+    // far inside the 16 MB both ends accept
+    private static final int MAX_OPERATION_CHARS = 8 * 1024;
+    // Sequence number of the last server operation applied, and operations that arrived
+    // ahead of a gap, e.g. broadcasts overtaking a sync reply. Only touched on the UI thread.
+    private long lastSequence;
+    private final TreeMap<Long, Operation> early = new TreeMap<>();
     StompSession stompSession;
     ClientWebsocket clientWebsocket;
 
@@ -29,129 +38,73 @@ public class CRDTManager {
         this.localUserId = localUserId;
         this.crdt = new CRDT();
 
-        System.out.println("Text length: " + text.length());
-        System.out.println("Text: " + text);
-        long parentTimestamp = -1;
-        for (int i = 0; i < text.length(); i++) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.err.println("Thread was interrupted: " + e.getMessage());
-            }
+        if (local && !text.isEmpty()) {
+            insertString(0, text, documentCode);
+            System.out.println("Inserted locally: " + text.length() + " characters");
+        }
+    }
 
-            char value = text.charAt(i);
-            long timestamp = System.currentTimeMillis() + i; // Ensure unique timestamp for each character
-            CRDT.CharacterId id = new CRDT.CharacterId(timestamp, localUserId-1);
-            CRDT.CharacterId parentId = new CRDT.CharacterId(parentTimestamp, localUserId-1);
-            parentTimestamp = timestamp; // Set parent timestamp for the next character
-            Operation op = new Operation();
-            
-            op.setOp("insert");
-            op.setID(id.userId);
-            op.setTimestamp(id.timestamp);
-            op.setValue(String.valueOf(value));
 
-            if (parentId != null) {
-                op.setParentID(parentId.userId);
-                op.setParentTimestamp(parentId.timestamp);
-            } else {
-                op.setParentID(-1);
-                op.setParentTimestamp(-1);
-            }
 
-            System.out.println("operation: " + op.getOp() + " ID = " + op.getID() + " Timestamp = " + op.getTimestamp() + " Value = " + op.getValue() + " Parent ID = " + op.getParentID() + " Parent Timestamp = " + op.getParentTimestamp());
-
-            if (local) {
-                insertLocalAtPosition(value, i, documentCode);
-                System.out.println("Inserted locally: " + value + " at position " + i);
-            } else {
-                //insertRemote(op);
-            }
+    /**
+     * Replace the local CRDT with a state received during a sync
+     * @param serializedCRDT Base64 encoded binary snapshot, see {@link CRDTSnapshot}
+     */
+    public void updateFromSerialized(String serializedCRDT) {
+        try {
+            CRDTSnapshot.readInto(crdt, Base64.getDecoder().decode(serializedCRDT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error updating CRDT from serialized data: " + e.getMessage());
+            return;
         }
+        // New local characters must sort after everything in the synced state
+        crdt.nodeMap.forEach(node -> clock.observe(CRDT.CharacterId.timestampOf(node.lastKey())));
 
-        System.out.println("--------------------- CRDT Imported ---------------------");
-        printCRDT();
-        System.out.println("----------------------------------------------------------");
+        System.out.println("CRDT sync completed - Document now has " + (crdt.nodeMap.size() - 1) + " nodes");
+        System.out.println("Updated document text: " + crdt.getVisibleString());
     }
 
 
+    /**
+     * Sequence number to ask the server to sync from
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
 
     /**
- * Updates the local CRDT from serialized data received during sync operations
- * 
- * @param serializedCRDT JSON representation of the CRDT
- */
-public void updateFromSerialized(String serializedCRDT) {
-    try {
-        // Parse the JSON data
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Object> crdtMap = mapper.readValue(serializedCRDT, Map.class);
-        List<Map<String, Object>> nodes = (List<Map<String, Object>>) crdtMap.get("nodes");
-        
-        if (nodes == null || nodes.isEmpty()) {
-            System.out.println("Received empty CRDT data in sync");
-            return;
-        }
-        
-        System.out.println("Updating local CRDT with " + nodes.size() + " nodes from sync");
-        
-        // Clear existing nodes except root
-        CRDT.Node rootNode = crdt.nodeMap.get(null);
-        crdt.nodeMap.clear();
-        crdt.nodeMap.put(null, rootNode);
-        rootNode.children.clear();
-        
-        // Reset any cached data
-        crdt.flatOrderedNodes.clear();
-        
-        // First pass: create all nodes
-        for (Map<String, Object> nodeData : nodes) {
-            // Extract node data
-            long idTimestamp = ((Number) nodeData.get("id_timestamp")).longValue();
-            int idUserId = ((Number) nodeData.get("id_userId")).intValue();
-            char value = nodeData.get("value").toString().charAt(0);
-            boolean isDeleted = (boolean) nodeData.get("isDeleted");
-            
-            // Create node ID
-            CRDT.CharacterId id = new CRDT.CharacterId(idTimestamp, idUserId);
-            
-            // Get parent ID
-            long parentTimestamp = ((Number) nodeData.get("parentId_timestamp")).longValue();
-            int parentUserId = ((Number) nodeData.get("parentId_userId")).intValue();
-            CRDT.CharacterId parentId = (parentTimestamp != -1) 
-                ? new CRDT.CharacterId(parentTimestamp, parentUserId)
-                : null;
-            
-            // Create node
-            CRDT.Node node = new CRDT.Node(id, parentId, value, isDeleted);
-            crdt.nodeMap.put(id, node);
+     * Put an operation from the server in order
+     * @return The operations that can be applied now, in sequence order: none if this one
+     * was seen before or has to wait for earlier ones, more than one if it filled a gap
+     */
+    public List<Operation> inSequence(Operation op) {
+        if (op.getSequence() == 0) {
+            return List.of(op); // Not numbered, e.g. a sync broadcast
         }
-        
-        // Second pass: rebuild tree structure
-        for (CRDT.CharacterId id : crdt.nodeMap.keySet()) {
-            if (id == null) continue; // Skip root node
-            
-            CRDT.Node node = crdt.nodeMap.get(id);
-            CRDT.Node parentNode = crdt.nodeMap.get(node.parentId);
-            
-            if (parentNode != null) {
-                parentNode.addChild(node);
-            } else {
-                // If parent not found, add to root
-                rootNode.addChild(node);
-            }
+        if (op.getSequence() > lastSequence) {
+            early.put(op.getSequence(), op);
         }
-        
-        System.out.println("CRDT sync completed - Document now has " + (crdt.nodeMap.size() - 1) + " nodes"); 
-        System.out.println("Updated document text: " + crdt.getVisibleString());
-        
-    } catch (Exception e) {
-        System.err.println("Error updating CRDT from serialized data: " + e.getMessage());
-        e.printStackTrace();
+        return drainInSequence();
     }
-}
 
+    /**
+     * Continue from a snapshot that covers everything up to the given sequence number
+     * @return Operations received early that follow on from it
+     */
+    public List<Operation> skipToSequence(long sequence) {
+        lastSequence = Math.max(lastSequence, sequence);
+        early.headMap(lastSequence, true).clear();
+        return drainInSequence();
+    }
+
+    private List<Operation> drainInSequence() {
+        List<Operation> ready = new ArrayList<>();
+        while (!early.isEmpty() && early.firstKey() == lastSequence + 1) {
+            ready.add(early.pollFirstEntry().getValue());
+            lastSequence++;
+        }
+        return ready;
+    }
 
     /**
      * Insert a character locally at the specified position and broadcast the operation
@@ -160,11 +113,10 @@ public void updateFromSerialized(String serializedCRDT) {
      * @param documentCode Document code for broadcasting
      */
     public void insertLocalAtPosition(char value, int position, String documentCode) {
-        long timestamp = System.currentTimeMillis();
-        CRDT.CharacterId id = new CRDT.CharacterId(timestamp, localUserId);
+        CRDT.CharacterId id = new CRDT.CharacterId(clock.tick(), localUserId);
 
         crdt.insert(id, value, position);
-        CRDT.CharacterId parentId = crdt.nodeMap.get(id).parentId;
+        CRDT.CharacterId parentId = crdt.getParentId(id);
 
         Operation op = new Operation();
         op.setOp("insert");
@@ -187,6 +139,60 @@ public void updateFromSerialized(String serializedCRDT) {
         clientWebsocket.sendOperation(op, documentCode);
     }
 
+    /**
+     * Insert a whole string at the given position, e.g. for a paste or an import. The anchor
+     * is resolved once, the characters take consecutive clock values so the tree stores them
+     * as a single run, and the run is broadcast as one operation (sliced only if it would not
+     * fit in a frame).
+     * @param position Position where to insert (0 = beginning of document)
+     * @param text Characters to insert
+     * @param documentCode Document code for broadcasting
+     */
+    public void insertString(int position, CharSequence text, String documentCode) {
+        if (text.length() == 0) {
+            return;
+        }
+        CRDT.CharacterId id = new CRDT.CharacterId(clock.tick(text.length()), localUserId);
+        crdt.insert(id, text, position);
+        CRDT.CharacterId parentId = crdt.getParentId(id);
+
+        Operation op = new Operation();
+        op.setOp("insert");
+        op.setID(id.userId);
+        op.setTimestamp(id.timestamp);
+        op.setValue(text.toString());
+        op.setParentID(parentId.userId);
+        op.setParentTimestamp(parentId.timestamp);
+
+        undoStack.push(op); // Push the operation onto the undo stack
+        redoStack.clear(); // Clear the redo stack when a new operation is performed
+
+        broadcast(op, documentCode);
+    }
+
+    /**
+     * Send an operation, cutting runs longer than MAX_OPERATION_CHARS into consecutive slices.
+     * Each insert slice names the last character of the slice before it as its parent.
+     */
+    private void broadcast(Operation op, String documentCode) {
+        String value = op.getValue();
+        if (value == null || value.length() <= MAX_OPERATION_CHARS) {
+            clientWebsocket.sendOperation(op, documentCode);
+            return;
+        }
+        for (int start = 0; start < value.length(); start += MAX_OPERATION_CHARS) {
+            Operation slice = new Operation(op.getOp(), op.getID(), op.getTimestamp() + start,
+                    value.substring(start, Math.min(value.length(), start + MAX_OPERATION_CHARS)),
+                    op.getParentID(), op.getParentTimestamp());
+            slice.setOriginalPosition(op.getOriginalPosition());
+            if (start > 0 && op.getOp().equals("insert")) {
+                slice.setParentID(op.getID());
+                slice.setParentTimestamp(op.getTimestamp() + start - 1);
+            }
+            clientWebsocket.sendOperation(slice, documentCode);
+        }
+    }
+
     /**
      * Delete a character at the specified position and broadcast the operation
      * @param position Position to delete (0 = first character)
@@ -200,7 +206,7 @@ public void updateFromSerialized(String serializedCRDT) {
             return false;
         }
 
-        char value = crdt.getVisibleString().charAt(position);
+        char value = crdt.charAt(position);
         boolean success = crdt.delete(id);
         if (success) {
             Operation op = new Operation();
@@ -223,34 +229,62 @@ public void updateFromSerialized(String serializedCRDT) {
     }
 
     /**
-     * Process a remote insert operation
+     * Process a remote insert operation, which may carry a run of characters
+     * @return Position of the first inserted character in the visible text, or -1 if the
+     * operation was already applied
      */
-    public void insertRemote(Operation op) {
+    public int insertRemote(Operation op) {
         CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
+        clock.observe(op.getTimestamp() + op.runLength() - 1);
         CRDT.CharacterId parentId = (op.getParentID() != -1)
             ? new CRDT.CharacterId(op.getParentTimestamp(), op.getParentID())
             : null;
             
-        // Create the new node and add it to the nodeMap
-        CRDT.Node node = new CRDT.Node(id, parentId, op.getValue().charAt(0), false);
-        crdt.nodeMap.put(id, node);
-
-        // Add the node as a child of its parent
-        CRDT.Node parent = crdt.nodeMap.get(parentId);
-        if (parent != null) {
-            parent.addChild(node);
-        } else {
-            // If parent is null or not found, add to root
-            crdt.nodeMap.get(null).addChild(node);
+        // Add the node as a child of its parent (or the root if the parent is not found)
+        if (!crdt.insert(id, parentId, op.getValue())) {
+            return -1;
         }
+        return crdt.getPositionForCharacterId(id);
     }
 
     /**
-     * Process a remote delete operation
+     * Process a remote delete operation, which may cover a run of consecutive IDs
+     * @return The removed ranges as {position, length} pairs, in the order they were removed,
+     * so each position already accounts for the ranges before it
      */
-    public void deleteRemote(Operation op) {
-        CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
-        crdt.delete(id);
+    public List<int[]> deleteRemote(Operation op) {
+        List<int[]> removed = new ArrayList<>(1);
+        int count = op.runLength();
+        clock.observe(op.getTimestamp() + count - 1);
+        int i = 0;
+        while (i < count) {
+            CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp() + i, op.getID());
+            int position = crdt.getPositionForCharacterId(id);
+            if (position == -1) {
+                i++; // already gone
+                continue;
+            }
+            // Characters of the run that still sit next to each other go in one step
+            int span = 1;
+            while (i + span < count
+                    && crdt.getPositionForCharacterId(new CRDT.CharacterId(id.timestamp + span, id.userId)) == position + span) {
+                span++;
+            }
+            crdt.delete(id, span);
+            removed.add(new int[] {position, span});
+            i += span;
+        }
+        return removed;
+    }
+
+    /**
+     * Process a remote undelete, including our own coming back from the server: applying it
+     * again in server order undoes a delete that overtook it there
+     * @return Whether the visible text changed
+     */
+    public boolean undeleteRemote(Operation op) {
+        clock.observe(op.getTimestamp() + op.runLength() - 1);
+        return crdt.undelete(new CRDT.CharacterId(op.getTimestamp(), op.getID()), op.runLength()) > 0;
     }
 
     /**
@@ -319,20 +353,18 @@ public void updateFromSerialized(String serializedCRDT) {
             if (op.getOp().equals("insert")) {
                 // Reverse insert -> delete
                 CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
-                crdt.delete(id);
+                crdt.delete(id, op.runLength());
                 reverseOp = new Operation("delete", op.getID(), op.getTimestamp(), op.getValue(), -1, -1);
             } else if (op.getOp().equals("delete")) {
-                // Reverse delete -> insert
+                // Reverse delete -> undelete: the characters come back where they were
                 CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
-                int originalPosition = op.getOriginalPosition(); // Retrieve the original position
-                crdt.insert(id, op.getValue().charAt(0), originalPosition);
-                reverseOp = new Operation("insert", op.getID(), op.getTimestamp(), op.getValue(), -1, -1);
-                reverseOp.setOriginalPosition(originalPosition); // Include the original position
+                crdt.undelete(id, op.runLength());
+                reverseOp = new Operation("undelete", op.getID(), op.getTimestamp(), op.getValue(), -1, -1);
             }
 
             if (reverseOp != null) {
                 redoStack.push(op); // Push the original operation onto the redo stack
-                clientWebsocket.sendOperation(reverseOp, documentCode); // Broadcast the reverse operation
+                broadcast(reverseOp, documentCode); // Broadcast the reverse operation
             }
         } else {
             System.out.println("Undo stack is empty.");
@@ -342,30 +374,23 @@ public void updateFromSerialized(String serializedCRDT) {
     public void redo(String documentCode) {
         if (!redoStack.isEmpty()) {
             Operation op = redoStack.pop();
-            Operation reverseOp = null;
+            Operation redone = null;
 
             if (op.getOp().equals("insert")) {
-                // Redo insert
+                // Redo insert: the undo only deleted the characters, so they come back in place
                 CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
-                int position = crdt.getPositionForCharacterId(id);
-
-                // If the position is invalid, calculate the correct position
-                if (position == -1) {
-                    position = crdt.getOrderedVisibleNodes().size(); // Insert at the end if position is not found
-                }
-
-                crdt.insert(id, op.getValue().charAt(0), position);
-                reverseOp = new Operation("delete", op.getID(), op.getTimestamp(), op.getValue(), -1, -1);
+                crdt.undelete(id, op.runLength());
+                redone = new Operation("undelete", op.getID(), op.getTimestamp(), op.getValue(), -1, -1);
             } else if (op.getOp().equals("delete")) {
                 // Redo delete
                 CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
-                crdt.delete(id);
-                reverseOp = new Operation("insert", op.getID(), op.getTimestamp(), op.getValue(), -1, -1);
+                crdt.delete(id, op.runLength());
+                redone = op;
             }
 
-            if (reverseOp != null) {
+            if (redone != null) {
                 undoStack.push(op); // Push the original operation back onto the undo stack
-                clientWebsocket.sendOperation(op, documentCode); // Broadcast the operation
+                broadcast(redone, documentCode); // Broadcast the operation
             }
         } else {
             System.out.println("Redo stack is empty.");
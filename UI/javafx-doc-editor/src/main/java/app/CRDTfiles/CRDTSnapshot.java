@@ -0,0 +1,276 @@
+package app.CRDTfiles;
+
+import java.util.Arrays;
+
+/**
+ * Compact, versioned binary image of a whole CRDT, for persisting documents and for
+ * shipping a full state to a client.
+ *
+ * Layout, with every integer a varint:
+ * <pre>
+ *   "CRDT" version nodeCount charCount
+ *   nodeCount x (userDelta timestampDelta parentDistance length)
+ *   tombstone bitmap, one bit per node
+ *   run-length encoded text of all nodes
+ * </pre>
+ * Nodes are listed in document order. User and timestamp are zigzag deltas from the node
+ * before, so a run typed by the author of the previous one costs a byte or two. The parent
+ * is given as the distance back to it in the list, 0 for the root, which also makes loading
+ * independent of how the reading side orders siblings. A text token h stands for h / 2
+ * literal characters when h is even, and for one character repeated h / 2 times when odd;
+ * characters are varints of their UTF-16 code unit.
+ */
+public final class CRDTSnapshot {
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = { 'C', 'R', 'D', 'T' };
+    // Shortest repeat that is cheaper as a repeat token than as literals
+    private static final int MIN_REPEAT = 4;
+
+    private CRDTSnapshot() {
+    }
+
+    public static byte[] write(CRDT crdt) {
+        int nodeCount = crdt.nodeMap.size() - 1;
+        CRDT.Node[] nodes = new CRDT.Node[nodeCount];
+        int[] parents = new int[nodeCount];
+        int[] chars = new int[1];
+        // Index in document order of the node open at each depth, counting from 1
+        int[][] path = { new int[16] };
+        int[] next = { 1 };
+        crdt.walk(crdt.root(), (node, depth) -> {
+            if (depth == 0) {
+                return;
+            }
+            int index = next[0]++;
+            if (depth == path[0].length) {
+                path[0] = Arrays.copyOf(path[0], depth * 2);
+            }
+            path[0][depth] = index;
+            nodes[index - 1] = node;
+            parents[index - 1] = depth == 1 ? 0 : index - path[0][depth - 1];
+            chars[0] += node.length();
+        });
+
+        Output out = new Output(16 + nodeCount * 6 + chars[0]);
+        out.bytes(MAGIC);
+        out.varint(VERSION);
+        out.varint(nodeCount);
+        out.varint(chars[0]);
+
+        long previousTimestamp = 0;
+        int previousUser = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            CRDT.Node node = nodes[i];
+            long timestamp = CRDT.CharacterId.timestampOf(node.key);
+            int user = CRDT.CharacterId.userIdOf(node.key);
+            out.varint(zigzag(user - previousUser));
+            out.varint(zigzag(timestamp - previousTimestamp));
+            out.varint(parents[i]);
+            out.varint(node.length());
+            previousTimestamp = timestamp;
+            previousUser = user;
+        }
+
+        byte[] tombstones = new byte[(nodeCount + 7) / 8];
+        for (int i = 0; i < nodeCount; i++) {
+            if (nodes[i].isDeleted) {
+                tombstones[i >> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        out.bytes(tombstones);
+
+        char[] text = new char[chars[0]];
+        int offset = 0;
+        for (CRDT.Node node : nodes) {
+            for (int i = 0; i < node.length(); i++) {
+                text[offset++] = node.charAt(i);
+            }
+        }
+        writeText(out, text);
+        return out.toByteArray();
+    }
+
+    public static CRDT read(byte[] snapshot) {
+        CRDT crdt = new CRDT();
+        readInto(crdt, snapshot);
+        return crdt;
+    }
+
+    /**
+     * Replace the contents of a CRDT with a snapshot, in a single pass over the nodes
+     * @throws IllegalArgumentException If the data is not a snapshot this version can read
+     */
+    public static void readInto(CRDT crdt, byte[] snapshot) {
+        Input in = new Input(snapshot);
+        for (byte b : MAGIC) {
+            if (in.pos >= snapshot.length || snapshot[in.pos++] != b) {
+                throw new IllegalArgumentException("Not a CRDT snapshot");
+            }
+        }
+        int version = (int) in.varint();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version);
+        }
+        int nodeCount = (int) in.varint();
+        int charCount = (int) in.varint();
+
+        long[] keys = new long[nodeCount];
+        int[] parents = new int[nodeCount];
+        int[] lengths = new int[nodeCount];
+        long timestamp = 0;
+        int user = 0;
+        int total = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            user += (int) unzigzag(in.varint());
+            timestamp += unzigzag(in.varint());
+            keys[i] = CRDT.CharacterId.pack(timestamp, user);
+            parents[i] = (int) in.varint();
+            lengths[i] = (int) in.varint();
+            if (parents[i] > i || lengths[i] <= 0) {
+                throw new IllegalArgumentException("Corrupt snapshot at node " + i);
+            }
+            total += lengths[i];
+        }
+        if (total != charCount) {
+            throw new IllegalArgumentException("Corrupt snapshot: node lengths do not add up");
+        }
+        int tombstones = in.pos;
+        in.pos += (nodeCount + 7) / 8;
+        if (in.pos > snapshot.length) {
+            throw new IllegalArgumentException("Truncated snapshot");
+        }
+        char[] text = readText(in, charCount);
+
+        crdt.clear();
+        CRDT.Node[] nodes = new CRDT.Node[nodeCount];
+        int offset = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            CRDT.Node parent = parents[i] == 0 ? crdt.root() : nodes[i - parents[i]];
+            boolean deleted = (snapshot[tombstones + (i >> 3)] & (1 << (i & 7))) != 0;
+            CRDT.Node node = new CRDT.Node(keys[i], parent.lastKey(),
+                Arrays.copyOfRange(text, offset, offset + lengths[i]), lengths[i], deleted);
+            offset += lengths[i];
+            nodes[i] = node;
+            crdt.nodeMap.put(node.key, node);
+            parent.addChild(node);
+        }
+        crdt.reindex();
+    }
+
+    private static void writeText(Output out, char[] text) {
+        int literalStart = 0;
+        int i = 0;
+        while (i < text.length) {
+            int repeat = 1;
+            while (i + repeat < text.length && text[i + repeat] == text[i]) {
+                repeat++;
+            }
+            if (repeat < MIN_REPEAT) {
+                i += repeat;
+                continue;
+            }
+            writeLiterals(out, text, literalStart, i);
+            out.varint(((long) repeat << 1) | 1);
+            out.varint(text[i]);
+            i += repeat;
+            literalStart = i;
+        }
+        writeLiterals(out, text, literalStart, text.length);
+    }
+
+    private static void writeLiterals(Output out, char[] text, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        out.varint((long) (to - from) << 1);
+        for (int i = from; i < to; i++) {
+            out.varint(text[i]);
+        }
+    }
+
+    private static char[] readText(Input in, int charCount) {
+        char[] text = new char[charCount];
+        int offset = 0;
+        while (offset < charCount) {
+            long token = in.varint();
+            int count = (int) (token >>> 1);
+            if (count > charCount - offset) {
+                throw new IllegalArgumentException("Corrupt snapshot text");
+            }
+            if ((token & 1) != 0) {
+                Arrays.fill(text, offset, offset + count, (char) in.varint());
+                offset += count;
+            } else {
+                for (int i = 0; i < count; i++) {
+                    text[offset++] = (char) in.varint();
+                }
+            }
+        }
+        return text;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int size;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void varint(long value) {
+            if (size + 10 > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + 10));
+            }
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void bytes(byte[] bytes) {
+            if (size + bytes.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        int pos;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= data.length) {
+                    throw new IllegalArgumentException("Truncated snapshot");
+                }
+                byte b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Corrupt snapshot varint");
+        }
+    }
+}
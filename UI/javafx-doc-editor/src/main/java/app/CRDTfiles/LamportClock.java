@@ -0,0 +1,36 @@
+package app.CRDTfiles;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-replica logical clock for character IDs. Local operations take the next value and
+ * every received operation pushes the clock past its timestamps, so a new character always
+ * sorts as newer than anything this replica has seen, and IDs stay unique without waiting
+ * for the wall clock to move.
+ */
+public class LamportClock {
+    private final AtomicLong time = new AtomicLong();
+
+    /**
+     * Reserve count consecutive timestamps, e.g. for a run of characters
+     * @return The first of them
+     */
+    public long tick(int count) {
+        return time.getAndAdd(count) + 1;
+    }
+
+    public long tick() {
+        return tick(1);
+    }
+
+    /**
+     * Move the clock past a timestamp seen in a remote operation
+     */
+    public void observe(long timestamp) {
+        time.accumulateAndGet(timestamp, Math::max);
+    }
+
+    public long current() {
+        return time.get();
+    }
+}
@@ -0,0 +1,215 @@
+package app.CRDTfiles;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Order-statistic treap over the document order of a CRDT tree.
+ * Every node takes part as itself (where its character sits) and, once it has children,
+ * through an end marker placed after its last descendant. A new child can then be slotted
+ * in front of its next sibling, or in front of its parent's end marker, in O(log n).
+ * Subtree sizes count visible characters only, so position lookups are O(log n) as well.
+ */
+class SequenceIndex {
+
+    static class Entry {
+        Entry left;
+        Entry right;
+        Entry up;
+        int priority;
+        int size; // visible characters in this entry's treap subtree
+
+        /**
+         * Number of visible characters this entry holds on its own
+         */
+        int weight() {
+            return 0;
+        }
+    }
+
+    private Entry root;
+
+    int visibleCount() {
+        return size(root);
+    }
+
+    void clear() {
+        root = null;
+    }
+
+    /**
+     * Add an entry after everything already in the index
+     */
+    void append(Entry entry) {
+        reset(entry);
+        if (root == null) {
+            root = entry;
+            return;
+        }
+        Entry last = root;
+        while (last.right != null) {
+            last = last.right;
+        }
+        attach(last, entry, false);
+    }
+
+    /**
+     * Add an entry directly in front of an entry that is already indexed
+     */
+    void insertBefore(Entry anchor, Entry entry) {
+        reset(entry);
+        if (anchor.left == null) {
+            attach(anchor, entry, true);
+            return;
+        }
+        Entry prev = anchor.left;
+        while (prev.right != null) {
+            prev = prev.right;
+        }
+        attach(prev, entry, false);
+    }
+
+    /**
+     * Add an entry directly behind an entry that is already indexed
+     */
+    void insertAfter(Entry anchor, Entry entry) {
+        reset(entry);
+        if (anchor.right == null) {
+            attach(anchor, entry, false);
+            return;
+        }
+        Entry next = anchor.right;
+        while (next.left != null) {
+            next = next.left;
+        }
+        attach(next, entry, true);
+    }
+
+    /**
+     * Re-read the weight of an entry after its visibility changed
+     */
+    void refresh(Entry entry) {
+        int delta = entry.weight() - (entry.size - size(entry.left) - size(entry.right));
+        if (delta == 0) return;
+        for (Entry e = entry; e != null; e = e.up) {
+            e.size += delta;
+        }
+    }
+
+    /**
+     * Number of visible characters in front of the entry
+     */
+    int rank(Entry entry) {
+        int rank = size(entry.left);
+        for (Entry e = entry; e.up != null; e = e.up) {
+            if (e == e.up.right) {
+                rank += size(e.up.left) + e.up.weight();
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Entry holding the visible character at the given position, or null if out of range
+     */
+    Entry select(int position) {
+        if (position < 0) return null;
+        Entry e = root;
+        while (e != null) {
+            int leftSize = size(e.left);
+            if (position < leftSize) {
+                e = e.left;
+                continue;
+            }
+            position -= leftSize;
+            int weight = e.weight();
+            if (position < weight) {
+                return e;
+            }
+            position -= weight;
+            e = e.right;
+        }
+        return null;
+    }
+
+    /**
+     * First entry in document order
+     */
+    Entry first() {
+        Entry e = root;
+        if (e == null) return null;
+        while (e.left != null) {
+            e = e.left;
+        }
+        return e;
+    }
+
+    /**
+     * Entry following the given one in document order
+     */
+    static Entry next(Entry entry) {
+        if (entry.right != null) {
+            Entry e = entry.right;
+            while (e.left != null) {
+                e = e.left;
+            }
+            return e;
+        }
+        Entry e = entry;
+        while (e.up != null && e == e.up.right) {
+            e = e.up;
+        }
+        return e.up;
+    }
+
+    private void reset(Entry entry) {
+        entry.left = null;
+        entry.right = null;
+        entry.up = null;
+        entry.priority = ThreadLocalRandom.current().nextInt();
+        entry.size = entry.weight();
+    }
+
+    private void attach(Entry parent, Entry entry, boolean asLeft) {
+        if (asLeft) {
+            parent.left = entry;
+        } else {
+            parent.right = entry;
+        }
+        entry.up = parent;
+        for (Entry e = parent; e != null; e = e.up) {
+            e.size += entry.size;
+        }
+        while (entry.up != null && entry.up.priority < entry.priority) {
+            rotateUp(entry);
+        }
+    }
+
+    private void rotateUp(Entry entry) {
+        Entry parent = entry.up;
+        Entry grandParent = parent.up;
+        if (entry == parent.left) {
+            parent.left = entry.right;
+            if (entry.right != null) entry.right.up = parent;
+            entry.right = parent;
+        } else {
+            parent.right = entry.left;
+            if (entry.left != null) entry.left.up = parent;
+            entry.left = parent;
+        }
+        parent.up = entry;
+        entry.up = grandParent;
+        if (grandParent == null) {
+            root = entry;
+        } else if (grandParent.left == parent) {
+            grandParent.left = entry;
+        } else {
+            grandParent.right = entry;
+        }
+        parent.size = size(parent.left) + size(parent.right) + parent.weight();
+        entry.size = size(entry.left) + size(entry.right) + entry.weight();
+    }
+
+    private static int size(Entry entry) {
+        return entry == null ? 0 : entry.size;
+    }
+}
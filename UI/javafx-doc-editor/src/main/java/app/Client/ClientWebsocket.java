@@ -14,9 +14,9 @@ import org.springframework.web.socket.messaging.WebSocketStompClient;
 import org.springframework.web.socket.sockjs.client.SockJsClient;
 import org.springframework.web.socket.sockjs.client.WebSocketTransport;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import io.micrometer.common.lang.NonNull;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -31,6 +31,7 @@ import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.converter.StringMessageConverter;
 
 import app.Operation;
+import app.SyncMessage;
 import app.CRDTfiles.CRDTManager;
 import app.EditorUI;
 import javafx.application.Platform;
@@ -46,13 +47,29 @@ public class ClientWebsocket {
     // Use a counter to batch operations for UI updates
     private AtomicInteger operationsReceived = new AtomicInteger(0);
     private static final int BATCH_SIZE = 5; // Update UI after every 5 operations or when idle
+    // Largest message accepted from the server
+    private static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    // The member-list and sync queues are per connection, so each is subscribed once however
+    // many topics we join
+    private boolean subscribedToMembers;
+    private boolean subscribedToSync;
+    // Last caret position sent, so a caret that did not move is not sent again
+    private String lastCursorPosition;
+    // Local edits made within this many milliseconds of each other go out as one frame
+    private static final long OPERATION_WINDOW_MILLIS = 10;
+    private final OperationBatcher operationBatcher = new OperationBatcher(this::sendOperationBatch, OPERATION_WINDOW_MILLIS);
 
     public void connectToWebSocket(EditorUI editorUI) {
         this.editorUI = editorUI;
         try {
-            List<Transport> transports = Collections.singletonList(new WebSocketTransport(new StandardWebSocketClient()));
+            // Sync replies carry thousands of operations or a whole snapshot per message,
+            // well past the container's 8 KB and STOMP's 64 KB defaults
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            container.setDefaultMaxTextMessageBufferSize(MAX_MESSAGE_BYTES);
+            List<Transport> transports = Collections.singletonList(new WebSocketTransport(new StandardWebSocketClient(container)));
             SockJsClient sockJsClient = new SockJsClient(transports);
             stompClient = new WebSocketStompClient(sockJsClient);
+            stompClient.setInboundMessageSizeLimit(MAX_MESSAGE_BYTES);
 
             // Add both StringMessageConverter and MappingJackson2MessageConverter
             List<MessageConverter> converters = new ArrayList<>();
@@ -87,48 +104,21 @@ public class ClientWebsocket {
                 @Override
                 @NonNull
                 public Type getPayloadType(@NonNull StompHeaders headers) {
-                    return Operation.class;
+                    // The server batches operations applied close together into one frame
+                    return Operation[].class;
                 }
 
                 @Override
                 public void handleFrame(@NonNull StompHeaders headers, @NonNull Object payload) {
-                    Operation result = (Operation) payload;
-
-                    System.out.println("Received operation: " + result.getOp() + " from user: " + result.getID() + " with value: " + result.getValue());
-                    
-                    if (result.getOp().equals("delete")) {
-                        crdtManager.deleteRemote(result);
-                        // Get the latest document text after each delete
-                        String currentText = crdtManager.getDocumentText();
-                        // Update the UI with the current text
-                        editorUI.updateDocumentWithString(currentText);
+                    List<Operation> edits = new ArrayList<>();
+                    for (Operation result : (Operation[]) payload) {
+                        System.out.println("Received operation: " + result.getOp() + " from user: " + result.getID() + " with value: " + result.getValue());
+                        edits.add(result);
                     }
-
-                    if (result.getID() != crdtManager.getLocalUserId()) {
-                        if (result.getOp().equals("insert")) {
-                            crdtManager.insertRemote(result);
-                            crdtManager.printCRDT();
-                            // Get the latest document text after each insert
-                            String currentText = crdtManager.getDocumentText();
-                            // Update the UI with the current text
-                            editorUI.updateDocumentWithString(currentText);
-                        }  else if (result.getOp().equals("sync")) {
-                            // Only apply syncs from other users, not our own bounced back
-                            if (result.getID() != crdtManager.getLocalUserId()) {
-                                System.out.println("Processing sync from user " + result.getID());
-                                // Process the sync only if it's from another user
-                                if (result.getCrdtState() != null && !result.getCrdtState().equals("{}")) {
-                                    // Apply the sync...
-                                    // This would require implementing a method to update the local CRDT
-                                    crdtManager.updateFromSerialized(result.getCrdtState());
-                                    
-                                    // Update UI with synced state
-                                    String currentText = crdtManager.getDocumentText();
-                                    editorUI.updateDocumentWithString(currentText);
-                                }
-                            }
-                        }
-                        
+                    // Applied on the UI thread in sequence order, one pass for the whole frame,
+                    // so the text area is patched against the same state
+                    if (!edits.isEmpty()) {
+                        editorUI.applyRemoteOperations(edits);
                     }
                 }
             });
@@ -143,32 +133,13 @@ public class ClientWebsocket {
         try {
             String topic = "/topic/session/" + sessionCode + "/users";
 
-            stompSession.subscribe(topic, new StompFrameHandler() {
-                @Override
-                @NonNull
-                public Type getPayloadType(@NonNull StompHeaders headers) {
-                    return List.class; // Expecting a List<Integer> payload
-                }
-
-                @Override
-                @SuppressWarnings("unchecked")
-                public void handleFrame(@NonNull StompHeaders headers, @NonNull Object payload) {
-                    List<Integer> userIds = (List<Integer>) payload;
-
-                    System.out.println("Received active user IDs: " + userIds);
-
-                    // Update the active users list in the UI
-                    Platform.runLater(() -> {
-                        for (Integer id : userIds) {
-                            String userIdString = "User" + id;
-                            if (!activeUsersList.getItems().contains(userIdString)) {
-                                activeUsersList.getItems().add(userIdString);
-                                System.out.println("User joined: " + userIdString);
-                            }
-                        }
-                    });
-                }
-            });
+            // The topic carries joined/left deltas; the full list arrives once on our user queue
+            // after we announce ourselves
+            stompSession.subscribe(topic, membershipHandler(activeUsersList));
+            if (!subscribedToMembers) {
+                stompSession.subscribe("/user/queue/session/users", membershipHandler(activeUsersList));
+                subscribedToMembers = true;
+            }
 
             // Customize the ListView to display each user with a different color
             activeUsersList.setCellFactory(listView -> new ListCell<String>() {
@@ -200,6 +171,60 @@ public class ClientWebsocket {
         }
     }
 
+    /**
+     * Applies a membership message: "members" (the full list), "joined" or "left" user IDs
+     */
+    private StompFrameHandler membershipHandler(ListView<String> activeUsersList) {
+        return new StompFrameHandler() {
+            @Override
+            @NonNull
+            public Type getPayloadType(@NonNull StompHeaders headers) {
+                return Map.class; // Expecting a Map<String, List<Integer>> payload
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleFrame(@NonNull StompHeaders headers, @NonNull Object payload) {
+                Map<String, List<Integer>> change = (Map<String, List<Integer>>) payload;
+
+                System.out.println("Received active users change: " + change);
+
+                // Update the active users list in the UI
+                Platform.runLater(() -> {
+                    List<Integer> joined = new ArrayList<>(change.getOrDefault("members", List.of()));
+                    joined.addAll(change.getOrDefault("joined", List.of()));
+                    for (Integer id : joined) {
+                        String userIdString = "User" + id;
+                        if (indexOfUser(activeUsersList, userIdString) == -1) {
+                            activeUsersList.getItems().add(userIdString);
+                            System.out.println("User joined: " + userIdString);
+                        }
+                    }
+                    for (Integer id : change.getOrDefault("left", List.of())) {
+                        int index = indexOfUser(activeUsersList, "User" + id);
+                        if (index != -1) {
+                            activeUsersList.getItems().remove(index);
+                            System.out.println("User left: User" + id);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Row of a user in the list, which may carry a cursor suffix, or -1
+     */
+    private static int indexOfUser(ListView<String> activeUsersList, String userIdString) {
+        for (int i = 0; i < activeUsersList.getItems().size(); i++) {
+            String item = activeUsersList.getItems().get(i);
+            if (item.equals(userIdString) || item.startsWith(userIdString + " ")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public void subscribeToCursor(String sessionCode, ListView<String> activeUsersList) {
         try {
             String topic = "/topic/session/" + sessionCode + "/cursor";
@@ -227,13 +252,7 @@ public class ClientWebsocket {
                             String userIdString = "User" + userId;
                             String displayText = userIdString + " (Line: " + lineNumber + ", Col: " + columnNumber + ")";
 
-                            int index = -1;
-                            for (int i = 0; i < activeUsersList.getItems().size(); i++) {
-                                if (activeUsersList.getItems().get(i).startsWith(userIdString)) {
-                                    index = i;
-                                    break;
-                                }
-                            }
+                            int index = indexOfUser(activeUsersList, userIdString);
 
                             if (index != -1) {
                                 activeUsersList.getItems().set(index, displayText);
@@ -252,109 +271,51 @@ public class ClientWebsocket {
         }
     }
 
-    private String serializeCRDT(app.CRDTfiles.CRDT crdt) {
-    try {
-        // Create a serializable representation of the CRDT
-        Map<String, Object> serializedCRDT = new HashMap<>();
-        
-        // Serialize nodes
-        List<Map<String, Object>> nodes = new ArrayList<>();
-        for (Map.Entry<app.CRDTfiles.CRDT.CharacterId, app.CRDTfiles.CRDT.Node> entry : crdt.nodeMap.entrySet()) {
-            app.CRDTfiles.CRDT.CharacterId id = entry.getKey();
-            app.CRDTfiles.CRDT.Node node = entry.getValue();
-            
-            if (id == null) continue; // Skip root node
-            
-            Map<String, Object> nodeMap = new HashMap<>();
-            nodeMap.put("id_timestamp", node.id.timestamp);
-            nodeMap.put("id_userId", node.id.userId);
-            nodeMap.put("value", String.valueOf(node.value));
-            nodeMap.put("isDeleted", node.isDeleted);
-            
-            if (node.parentId != null) {
-                nodeMap.put("parentId_timestamp", node.parentId.timestamp);
-                nodeMap.put("parentId_userId", node.parentId.userId);
-            } else {
-                nodeMap.put("parentId_timestamp", -1);
-                nodeMap.put("parentId_userId", -1);
-            }
-            
-            nodes.add(nodeMap);
-        }
-        
-        serializedCRDT.put("nodes", nodes);
-        
-        // Use Jackson to convert to JSON
-        ObjectMapper mapper = new ObjectMapper();
-        return mapper.writeValueAsString(serializedCRDT);
-    } catch (Exception e) {
-        System.err.println("Error serializing CRDT: " + e.getMessage());
-        e.printStackTrace();
-        return "{}";
-    }
-}
-
-
-    public void syncFullCRDT(String documentCode) {
-        // Serialize entire CRDT and send to server
-        Operation syncOp = new Operation();
-        syncOp.setOp("sync");
-        syncOp.setID(crdtManager.getLocalUserId());
-        //syncOp.setVersion(crdtManager.getCurrentVersion()); may need later, must implement setVersion
-        // Need to implement serialization of CRDT
-        syncOp.setCrdtState(serializeCRDT(crdtManager.getCRDT()));
-        sendOperation(syncOp, documentCode);
+    public void sendOperation(Operation operation, String DocumentCode) {
+        operationBatcher.add(operation, DocumentCode);
     }
 
-
-    public void sendOperation(Operation operation, String DocumentCode) {
+    /**
+     * Edits in the order they were made, applied by the server in one go
+     */
+    private void sendOperationBatch(List<Operation> operations, String DocumentCode) {
         try {
-            // Send the operation to the server
-            String destination = "/app/document/" + DocumentCode + "/operation";
-            stompSession.send(destination, operation);
+            String destination = "/app/document/" + DocumentCode + "/operations";
+            stompSession.send(destination, operations.toArray(new Operation[0]));
         } catch (Exception e) {
-            System.err.println("Error sending operation: " + e.getMessage());
+            System.err.println("Error sending operations: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * Ask the server for everything after the last operation we applied. The reply comes on
+     * our own sync queue: the missed operations, or a snapshot if too many were missed.
+     */
     public void sendSyncRequest(String DocumentCode) {
         try {
-            String topic = "/topic/document/" + DocumentCode + "/sync";
-            stompSession.subscribe(topic, new StompFrameHandler() {
-                @Override
-                @NonNull
-                public Type getPayloadType(@NonNull StompHeaders headers) {
-                    // Expect a single Operation object per message
-                    return Operation.class;
-                }
-
-                @Override
-                public void handleFrame(@NonNull StompHeaders headers, @NonNull Object payload) {
-                    Operation op = (Operation) payload;
-                    System.out.println("Operation sync: " + op.getOp() + " from user: " + op.getID() + " with timestamp: " + op.getTimestamp());
-                    // Handle the operation as needed (apply to CRDT, update UI, etc.)
-                    
-                    if (op.getOp().equals("delete")) {
-                        crdtManager.deleteRemote(op);
+            if (!subscribedToSync) {
+                stompSession.subscribe("/user/queue/document/sync", new StompFrameHandler() {
+                    @Override
+                    @NonNull
+                    public Type getPayloadType(@NonNull StompHeaders headers) {
+                        return SyncMessage.class;
                     }
 
-                    // if(op.getID() == crdtManager.getLocalUserId()) {
-                    //     // Ignore operations from the local user
-                    //     return;
-                    // }
-                    if (op.getOp().equals("insert")) {
-                        crdtManager.insertRemote(op);
+                    @Override
+                    public void handleFrame(@NonNull StompHeaders headers, @NonNull Object payload) {
+                        SyncMessage message = (SyncMessage) payload;
+                        System.out.println("Sync up to " + message.getSequence() + ": "
+                            + (message.getSnapshot() != null ? "snapshot" : message.getOperations().size() + " operations"));
+                        editorUI.applySync(message);
                     }
-                    // Update UI if needed
-                    //String currentText = crdtManager.getDocumentText();
-                    editorUI.updateDocumentAfterSync();
-                }
-            });
+                });
+                subscribedToSync = true;
+            }
 
             // Send a sync request to the server
             String destination = "/app/document/" + DocumentCode + "/sync";
-            stompSession.send(destination, "sync");
+            stompSession.send(destination, String.valueOf(crdtManager.getLastSequence()));
 
         } catch (Exception e) {
             System.err.println("Error sending sync request: " + e.getMessage());
@@ -378,9 +339,12 @@ public class ClientWebsocket {
             String destination = "/app/session/" + sessionCode + "/cursor";
             // Send as a map of userId -> "row,column"
             String positionString = lineNumber + "," + columnPosition;
+            if (positionString.equals(lastCursorPosition)) {
+                return;
+            }
             Map<String, String> cursorPositionMap = Collections.singletonMap(String.valueOf(userId), positionString);
             stompSession.send(destination, cursorPositionMap);
-            System.out.println("Sent cursor position: " + positionString + " for user: " + userId);
+            lastCursorPosition = positionString;
         } catch (Exception e) {
             System.err.println("Error sending cursor position: " + e.getMessage());
             e.printStackTrace();
@@ -388,6 +352,7 @@ public class ClientWebsocket {
     }
 
     public void close() {
+        operationBatcher.close();
         this.stompSession.disconnect();
     }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package app.Client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import app.Operation;
+import javafx.application.Platform;
+
+/**
+ * Collects local edits into batches, so a burst of typing or one UI event that makes many
+ * operations (deleting a selection, a long paste cut into slices, an undo) goes to the server
+ * as one frame. A batch is sent once the window after its first operation has passed, or
+ * as soon as another operation would take it past MAX_BATCH_CHARS. Batches are sent on
+ * the JavaFX thread, like every other message, so sends never overlap.
+ */
+public class OperationBatcher {
+    // Characters of values per batch, counting each operation's IDs and field names as
+    // OPERATION_OVERHEAD_CHARS more. Even with every character escaped as JSON and again by
+    // SockJS, a batch stays far inside the 16 MB WebSocket message limit on both ends.
+    private static final int MAX_BATCH_CHARS = 256 * 1024;
+    private static final int OPERATION_OVERHEAD_CHARS = 160;
+
+    private final BiConsumer<List<Operation>, String> send;
+    private final long windowMillis;
+    private final ScheduledExecutorService timer;
+
+    private List<Operation> pending = new ArrayList<>();
+    private String pendingDocument;
+    private int pendingChars;
+    private boolean flushScheduled;
+
+    /**
+     * @param send Sends a batch, in order, to the given document
+     * @param windowMillis How long the first operation of a batch waits for more; 0 still
+     *     batches everything made while handling the current UI event
+     */
+    public OperationBatcher(BiConsumer<List<Operation>, String> send, long windowMillis) {
+        this.send = send;
+        this.windowMillis = windowMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "operation-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void add(Operation operation, String documentCode) {
+        int chars = OPERATION_OVERHEAD_CHARS + (operation.getValue() != null ? operation.getValue().length() : 0);
+        if (!pending.isEmpty() && (!documentCode.equals(pendingDocument) || pendingChars + chars > MAX_BATCH_CHARS)) {
+            flush();
+        }
+        pending.add(operation);
+        pendingDocument = documentCode;
+        pendingChars += chars;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            if (windowMillis == 0) {
+                Platform.runLater(this::scheduledFlush);
+            } else {
+                timer.schedule(() -> Platform.runLater(this::scheduledFlush), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Send whatever is waiting now, e.g. before a message that must not overtake it
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Operation> batch = pending;
+        pending = new ArrayList<>();
+        pendingChars = 0;
+        send.accept(batch, pendingDocument);
+    }
+
+    private synchronized void scheduledFlush() {
+        flushScheduled = false;
+        flush();
+    }
+
+    public void close() {
+        flush();
+        timer.shutdownNow();
+    }
+}
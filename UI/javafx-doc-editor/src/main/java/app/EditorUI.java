@@ -1,7 +1,5 @@
 package app;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
@@ -22,7 +20,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.springframework.web.client.RestTemplate;
 
@@ -42,6 +42,9 @@ public class EditorUI extends Application {
     Boolean isNewSession = true; // Flag to check if it's a new session
     Boolean isEditor = true; // Flag to check if it's an editor
     Boolean isImported = false; // Flag to check if the document is imported
+    // State of a joined document: the server's snapshot and the sequence number it reflects
+    private String joinSnapshot;
+    private long joinSequence;
 
     // Define the listener as a field
     private ChangeListener<String> textChangeListener;
@@ -59,13 +62,19 @@ public class EditorUI extends Application {
         this.isImported = true; // Set the imported flag
     }
 
-    public void setExistingCRDT(char role, int userID, String text, String documentCode) {
+    /**
+     * Join an existing document from the snapshot the server handed out
+     * @param snapshot Base64 encoded CRDT snapshot
+     * @param sequence Sequence number of the last operation the snapshot includes
+     */
+    public void setExistingCRDT(char role, int userID, String snapshot, long sequence, String documentCode) {
         
         this.isEditor = role == 'E'; // Set the editor role based on the parameter
         this.userID = userID;
         isNewSession = false; // Set to false if an existing CRDT is provided
         sessionCode = documentCode;
-        initialContent = text; // Set the initial content to the provided text
+        joinSnapshot = snapshot;
+        joinSequence = sequence;
     }
 
     
@@ -106,7 +115,11 @@ public class EditorUI extends Application {
                 handleTextChange(oldValue, newValue);
             } else {
                 // Revert text if a viewer tries to change it
-                Platform.runLater(() -> textArea.setText(initialContent));
+                Platform.runLater(() -> {
+                    textArea.textProperty().removeListener(textChangeListener);
+                    textArea.setText(crdtManager.getDocumentText());
+                    textArea.textProperty().addListener(textChangeListener);
+                });
             }
         };
 
@@ -176,50 +189,37 @@ public class EditorUI extends Application {
         if (isNewSession) {
             fetchDocumentCodes(viewerCodeLabel, editorCodeLabel);
             websocket.subscribeToDocument(editorCode, crdtManager);
+            // Editors and viewers share the document's topics, so the editor code covers both
             websocket.subscribeToActiveUsers(userID, editorCode, activeUsersList); // Subscribe to active users
-            websocket.subscribeToActiveUsers(userID, viewerCode, activeUsersList); // Subscribe to active users
             websocket.sendUserId(userID, editorCode);
             websocket.subscribeToCursor(editorCode, activeUsersList);
-            websocket.subscribeToCursor(viewerCode, activeUsersList);
             sessionCode = editorCode;
-
-            setupPeriodicSync(editorCode);
         } else {
-            crdtManager = new CRDTManager(userID, websocket, initialContent, false, sessionCode);
+            // Hydrated from the server's own CRDT, so IDs match everyone else's; operations
+            // after the snapshot come from the sync below
+            crdtManager = new CRDTManager(userID, websocket);
+            crdtManager.updateFromSerialized(joinSnapshot);
+            crdtManager.skipToSequence(joinSequence);
             if (isEditor) {
                 editorCodeLabel.setText("Editor Code: " + sessionCode);
             } else {
                 viewerCodeLabel.setText("Viewer Code: " + sessionCode);
             }
-            setInitialContent(crdtManager.getDocumentText());
+            updateDocumentWithString(crdtManager.getDocumentText());
             websocket.subscribeToDocument(sessionCode, crdtManager);
             websocket.subscribeToActiveUsers(userID, sessionCode, activeUsersList); // Subscribe to active users
             websocket.sendUserId(userID, sessionCode);
             websocket.subscribeToCursor(sessionCode, activeUsersList);
             
-            if(!isImported) {
-                websocket.sendSyncRequest(sessionCode);
-            }
-
-            websocket.syncFullCRDT(sessionCode);
-            setupPeriodicSync(sessionCode);
+            // Only what happened since the snapshot; the snapshot already is the server's state,
+            // so there is no full state to push back
+            websocket.sendSyncRequest(sessionCode);
         }
 
     }
     
 
 
-    // Add periodic sync (every 30 seconds or so)
-    private void setupPeriodicSync(String documentCode) {
-        Timeline timeline = new Timeline(
-            new KeyFrame(javafx.util.Duration.seconds(30), e -> websocket.syncFullCRDT(documentCode))
-        );
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        timeline.play();
-    }
-
-
-
     /**
      * Handles text changes in the editor, forms an Operation, and sends it.
      */
@@ -237,20 +237,8 @@ public class EditorUI extends Application {
             // Insert operation - process the entire inserted string
             String inserted = newText.substring(diffIndex, diffIndex + (newText.length() - oldText.length()));
 
-            // Insert the entire string at the correct position
-            for (int i = 0; i < inserted.length(); i++) {
-                char c = inserted.charAt(i);
-                int position = diffIndex + i; // Calculate the correct position for each character
-                crdtManager.insertLocalAtPosition(c, position, sessionCode);
-                try {
-                    Thread.sleep(2);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    System.err.println("Thread was interrupted: " + e.getMessage());
-                }
-            }
-
-            Platform.runLater(() -> crdtManager.printCRDT());
+            // Insert the entire string at the correct position as one run
+            crdtManager.insertString(diffIndex, inserted, sessionCode);
 
         } else if (newText.length() < oldText.length()) {
             // Delete operation - process the entire deleted string
@@ -261,15 +249,7 @@ public class EditorUI extends Application {
                 // Always delete at diffIndex since positions shift after each deletion
                 crdtManager.deleteLocalAtPosition(diffIndex, sessionCode);
                 System.out.println("Deleting at position: " + diffIndex);
-                try {
-                    Thread.sleep(2);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    System.err.println("Thread was interrupted: " + e.getMessage());
-                }
             }
-
-            Platform.runLater(() -> crdtManager.printCRDT());
         }
     }
 
@@ -322,6 +302,126 @@ public void updateDocumentWithString(String content) {
     });
 }
 
+/**
+ * Applies a frame of operations broadcast by the server, each once every operation numbered
+ * before it has been applied. Runs on the UI thread so positions match what the user
+ * currently sees.
+ * @param ops The remote operations, in the order the server applied them
+ */
+public void applyRemoteOperations(List<Operation> ops) {
+    Platform.runLater(() -> {
+        for (Operation op : ops) {
+            for (Operation ready : crdtManager.inSequence(op)) {
+                if (ready.getOp().equals("delete")) {
+                    applyRemoteDelete(ready);
+                } else if (ready.getOp().equals("undelete")) {
+                    // Our own echo too: a delete the server applied first may have hidden the text again
+                    if (crdtManager.undeleteRemote(ready)) {
+                        updateDocumentWithString(crdtManager.getDocumentText());
+                    }
+                } else if (ready.getOp().equals("insert") && ready.getID() != crdtManager.getLocalUserId()) {
+                    // Our own inserts are in the text already
+                    applyRemoteInsert(ready);
+                }
+            }
+        }
+    });
+}
+
+/**
+ * Catches up from a sync reply: either a snapshot or a batch of missed operations. Batches
+ * only go into the CRDT; the text area is refreshed once, after the last message of the
+ * reply, rather than patched for every operation.
+ * @param message One message of the server's reply to a sync request
+ */
+public void applySync(SyncMessage message) {
+    Platform.runLater(() -> {
+        List<Operation> ready = new ArrayList<>();
+        if (message.getSnapshot() != null) {
+            crdtManager.updateFromSerialized(message.getSnapshot());
+            ready.addAll(crdtManager.skipToSequence(message.getSequence()));
+        } else {
+            for (Operation op : message.getOperations()) {
+                ready.addAll(crdtManager.inSequence(op));
+            }
+        }
+        for (Operation op : ready) {
+            if (op.getOp().equals("insert")) {
+                crdtManager.insertRemote(op);
+            } else if (op.getOp().equals("delete")) {
+                crdtManager.deleteRemote(op);
+            } else if (op.getOp().equals("undelete")) {
+                crdtManager.undeleteRemote(op);
+            }
+        }
+        if (message.isLast()) {
+            updateDocumentAfterSync();
+        }
+    });
+}
+
+/**
+ * Applies a remote insert to the CRDT and patches the text area in place. Must run on the
+ * UI thread.
+ * @param op The remote insert operation
+ */
+private void applyRemoteInsert(Operation op) {
+    int position = crdtManager.insertRemote(op);
+    TextArea textArea = findTextArea();
+    if (textArea == null || position < 0) {
+        return;
+    }
+    // replaceText moves the caret, so shift the local caret past the remote text ourselves
+    int caretPos = textArea.getCaretPosition();
+    textArea.textProperty().removeListener(textChangeListener);
+    int length = op.getValue().length();
+    textArea.insertText(position, op.getValue());
+    textArea.positionCaret(caretPos >= position ? caretPos + length : caretPos);
+    textArea.textProperty().addListener(textChangeListener);
+}
+
+/**
+ * Applies a remote delete to the CRDT and removes the characters from the text area in place.
+ * Must run on the UI thread.
+ * @param op The remote delete operation
+ */
+private void applyRemoteDelete(Operation op) {
+    List<int[]> ranges = crdtManager.deleteRemote(op);
+    TextArea textArea = findTextArea();
+    if (textArea == null || ranges.isEmpty()) {
+        return;
+    }
+    int caretPos = textArea.getCaretPosition();
+    textArea.textProperty().removeListener(textChangeListener);
+    for (int[] range : ranges) {
+        int position = range[0];
+        int length = range[1];
+        textArea.deleteText(position, position + length);
+        if (caretPos > position) {
+            caretPos = Math.max(position, caretPos - length);
+        }
+    }
+    textArea.positionCaret(caretPos);
+    textArea.textProperty().addListener(textChangeListener);
+}
+
+private TextArea findTextArea() {
+    Scene scene = Stage.getWindows().stream()
+        .filter(Window::isShowing)
+        .findFirst()
+        .map(Window::getScene)
+        .orElse(null);
+    if (scene == null) {
+        System.err.println("No active window scene found!");
+        return null;
+    }
+    TextArea textArea = (TextArea) scene.lookup(".text-area");
+    if (textArea == null) {
+        System.err.println("TextArea not found in scene!");
+    }
+    return textArea;
+}
+
 public void updateDocumentAfterSync() {
     // Store the new content
     this.initialContent = crdtManager.getDocumentText();
@@ -343,9 +443,6 @@ public void updateDocumentAfterSync() {
                 // Update the TextArea content with the full document text
                 textArea.setText(crdtManager.getDocumentText());
                 
-                // Debug log
-                System.out.println("UI updated with text: " + crdtManager.getDocumentText());
-                
                 // Re-add the listener
                 textArea.textProperty().addListener(textChangeListener);
             } else {
@@ -182,9 +182,9 @@ public class MainMenuUI {
                     String serverUrl = "http://localhost:8080/JoinDocument";
 
                     // Send a GET request to the server and receive the response as a Map
-                    HashMap<String, String> response = restTemplate.getForObject(serverUrl + "/" + sessionCode, HashMap.class);
+                    HashMap<String, Object> response = restTemplate.getForObject(serverUrl + "/" + sessionCode, HashMap.class);
 
-                    if ("error".equals(response.keySet().iterator().next())) {
+                    if (response.containsKey("error")) {
                         Alert alert = new Alert(Alert.AlertType.ERROR);
                         alert.setTitle("Error");
                         alert.setHeaderText("Failed to Join Session");
@@ -193,18 +193,18 @@ public class MainMenuUI {
                         return;
                     }
 
-                    // Extract userId and role from the response
-                    String key = response.keySet().iterator().next();
-                    char role = key.charAt(0); // First character indicates role (V for viewer, E for editor)
-                    int userId = Integer.parseInt(key.substring(1)); // Remaining part is the userId
-
-                    String text = response.values().iterator().next();
+                    // Extract userId and role (V for viewer, E for editor) from the response
+                    char role = ((String) response.get("role")).charAt(0);
+                    int userId = ((Number) response.get("userId")).intValue();
+                    // The document as the server holds it, and the last operation it includes
+                    String snapshot = (String) response.get("snapshot");
+                    long sequence = ((Number) response.get("sequence")).longValue();
 
                     System.out.println("User ID: " + userId);
-                    System.out.println("CRDT: " + text);
+                    System.out.println("Snapshot at sequence " + sequence + ": " + snapshot.length() + " characters");
 
                     EditorUI editor = new EditorUI();
-                    editor.setExistingCRDT(role, userId, text, sessionCode); // Replace null with actual CRDT conversion if needed
+                    editor.setExistingCRDT(role, userId, snapshot, sequence, sessionCode);
                     try {
                         editor.start(primaryStage);
                     } catch (Exception ex) {
@@ -1,5 +1,10 @@
 package app;
 
+/**
+ * An edit as sent over the wire. The value may hold a run of characters from one author:
+ * character i of an insert has the ID (timestamp + i, ID) and the character before it as its
+ * parent, and a delete removes value.length() consecutive IDs starting at (timestamp, ID).
+ */
 public class Operation{
 
     private String op;
@@ -10,6 +15,8 @@ public class Operation{
     private long parentTimestamp;
     private int originalPosition; // Add this field
     private String crdtState;
+    // Assigned by the server, in the order operations are applied to the document; 0 if not
+    private long sequence;
 
     public Operation()
     {
@@ -60,6 +67,13 @@ public class Operation{
     public void setValue(String value) {
         this.value = value;
     }
+
+    /**
+     * Number of characters the operation covers; a delete without a value covers one
+     */
+    public int runLength() {
+        return value == null || value.isEmpty() ? 1 : value.length();
+    }
     public int getParentID() {
         return parentID;
     }
@@ -73,6 +87,13 @@ public class Operation{
         this.parentTimestamp = parentTimestamp;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     public int getOriginalPosition() {
         return originalPosition;
     }
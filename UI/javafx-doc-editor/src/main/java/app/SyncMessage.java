@@ -0,0 +1,56 @@
+package app;
+
+import java.util.List;
+
+/**
+ * Reply to a client catching up on a document. Either the operations it missed, oldest
+ * first, or, when those are no longer all kept, a snapshot of the whole document instead.
+ * Either way the client is up to date as of sequence afterwards. Long runs of operations
+ * are split over several messages; only the last one has last set.
+ */
+public class SyncMessage {
+
+    private long sequence;
+    // Base64 encoded CRDTSnapshot, or null when operations are sent instead
+    private String snapshot;
+    private List<Operation> operations;
+    private boolean last;
+
+    public SyncMessage()
+    {
+
+    }
+
+    public SyncMessage(long sequence, String snapshot, List<Operation> operations, boolean last) {
+        this.sequence = sequence;
+        this.snapshot = snapshot;
+        this.operations = operations;
+        this.last = last;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    public String getSnapshot() {
+        return snapshot;
+    }
+    public void setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+    }
+    public List<Operation> getOperations() {
+        return operations;
+    }
+    public void setOperations(List<Operation> operations) {
+        this.operations = operations;
+    }
+    public boolean isLast() {
+        return last;
+    }
+    public void setLast(boolean last) {
+        this.last = last;
+    }
+
+}
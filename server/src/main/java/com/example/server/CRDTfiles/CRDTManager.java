@@ -1,19 +1,48 @@
 package com.example.server.CRDTfiles;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.example.server.Operation;
+import com.example.server.storage.DocumentStore;
 
+/**
+ * Owns every document's CRDT. The maps are concurrent so any thread may look documents up,
+ * but a CRDT itself is not thread-safe: operations on one document must be applied through
+ * the {@link DocumentExecutor} stripe for its key (see {@link #getDocumentKey}).
+ *
+ * With a {@link DocumentStore}, documents survive a restart: startup registers every stored
+ * code without reading any CRDT, and each document is read in on first use. Cold documents
+ * can be dropped from memory again (see {@link DocumentHibernator}); any lookup of their CRDT
+ * reads them back in.
+ */
 public class CRDTManager {
-    private final Map<Integer, CRDT> crdtMap = new HashMap<>();
     private final CRDTNetworkService network;
     private final int localUserId;
-    // Data structure to store all generated viewer and editor code pairs
-    private final Map<Integer, List<String>> generatedCodes = new HashMap<>();
-    private final Map<Integer, Integer> userIds = new HashMap<>(); // Map to store user IDs for each document
+    // Source of character timestamps for edits made on the server itself
+    private final LamportClock clock = new LamportClock();
+    // Every viewer and editor code, resolved to its document in one lookup
+    private final Map<String, DocumentHandle> documents = new ConcurrentHashMap<>();
+    // The same documents by key
+    private final Map<Integer, DocumentState> states = new ConcurrentHashMap<>();
+    // null when documents only live in memory
+    private final DocumentStore store;
+    // Operations kept per document for clients catching up
+    private final int historyCapacity;
+    // User IDs are reserved in the store this many at a time
+    private static final int USER_ID_BLOCK = 64;
+    // Documents written out and dropped from memory, and read back in, with time spent
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictionNanos = new AtomicLong();
+    private final AtomicLong rehydrations = new AtomicLong();
+    private final AtomicLong rehydrationNanos = new AtomicLong();
     int docID; // Document ID to be used for each new document
     int userId;
 
@@ -21,77 +50,94 @@ public class CRDTManager {
         void sendOperation(Operation op);
     }
 
-    public HashMap<String, Object> CreateDocument() {
+    // synchronized: docID is handed out here, and codes must stay unique
+    public synchronized HashMap<String, Object> CreateDocument() {
         // Generate unique viewer and editor codes
-        String viewerCode;
-        String editorCode;
-        
-        viewerCode = UUID.randomUUID().toString().substring(0, 6).toUpperCase();
-        editorCode = UUID.randomUUID().toString().substring(0, 6).toUpperCase();
+        CRDT crdt = new CRDT(); // Create a new CRDT instance for the document
+        String editorCode = newCode();
+        String viewerCode = newCode();
+        while (viewerCode.equals(editorCode)) {
+            viewerCode = newCode();
+        }
+        if (store != null) {
+            // On disk before anyone gets the codes
+            store.registerDocument(docID, editorCode, viewerCode);
+        }
+        register(new DocumentState(docID, crdt, store != null ? this::load : null, historyCapacity), editorCode, viewerCode);
 
         System.out.println("Viewer Code: " + viewerCode);
         System.out.println("Editor Code: " + editorCode);
 
         // Generate a unique user ID starting from 1 and incrementing for each new user
-        
-        generatedCodes.put(docID, List.of(viewerCode, editorCode));
-        crdtMap.put(docID, new CRDT()); // Create a new CRDT instance for the document
-        userIds.put(userId, docID); // Store the user ID for the documentS
 
         HashMap<String, Object> response = new HashMap<>();
-        response.put("userId", userId);
+        response.put("userId", nextUserId());
         response.put("viewerCode", viewerCode);
         response.put("editorCode", editorCode);
 
-        userId++;
         docID++; // Increment the document ID for the next document
         return response;
     }
 
-    public HashMap<String, String> joinDocument(String documentCode) {
-
-        // Check if the document code exists in the generated codes
-        for (Map.Entry<Integer, List<String>> entry : generatedCodes.entrySet()) {
-            List<String> codes = entry.getValue();
-            if (codes.contains(documentCode)) {
-
-                if (codes.get(0).equals(documentCode)) {
-                    // Viewer code found
-                    System.out.println("Viewer code found: " + documentCode);
-                    CRDT crdt = crdtMap.get(entry.getKey()); // Return the CRDT instance for the document
-                    crdt.printTree();
-                    HashMap<String, String> response = new HashMap<>();
-                    String key = "V" + userId;
-                    response.put(key, crdt != null ? crdt.getVisibleString() : "");
-                    userIds.put(userId, entry.getKey()); // Store the user ID for the document
-                    userId++;
-                    return response;
-                } else if (codes.get(1).equals(documentCode)) {
-                    // Editor code found
-                    System.out.println("Editor code found: " + documentCode);
-                    CRDT crdt = crdtMap.get(entry.getKey()); // Return the CRDT instance for the document
-                    crdt.printTree();
-                    HashMap<String, String> response = new HashMap<>();
-                    String key = "E" + userId;
-                    response.put(key, crdt != null ? crdt.getVisibleString() : "");
-                    userIds.put(userId, entry.getKey()); // Store the user ID for the documentS
-                    userId++;
-                    return response;
-                }
-   
-            }
+    /**
+     * Hand out a user ID for a document code, with a snapshot of the document and the
+     * sequence number it reflects; the client hydrates from the snapshot and syncs from
+     * there. Must run on the document's stripe, so the snapshot and number match.
+     * Not synchronized: reading in a stored document must not hold up other joins.
+     * @return userId, role ("E" or "V"), snapshot (Base64 {@link CRDTSnapshot}) and sequence,
+     * or error if the code is unknown
+     */
+    public HashMap<String, Object> joinDocument(String documentCode) {
+
+        DocumentHandle document = documents.get(documentCode);
+        if (document != null) {
+            boolean viewer = document.getRole() == DocumentHandle.Role.VIEWER;
+            System.out.println((viewer ? "Viewer" : "Editor") + " code found: " + documentCode);
+            byte[] snapshot = CRDTSnapshot.write(document.getCrdt());
+            HashMap<String, Object> response = new HashMap<>();
+            response.put("userId", nextUserId());
+            response.put("role", viewer ? "V" : "E");
+            response.put("snapshot", Base64.getEncoder().encodeToString(snapshot));
+            response.put("sequence", document.getHistory().lastSequence());
+            return response;
         }
 
         System.out.println("Document code not found: " + documentCode);
-        HashMap<String, String> response = new HashMap<>();
+        HashMap<String, Object> response = new HashMap<>();
         response.put("error", "Document code not found");
         return response; // Document not found
     }
 
     public CRDTManager(int localUserId) {
+        this(localUserId, null);
+    }
+
+    /**
+     * @param store Where documents are persisted, or null to keep them in memory only
+     */
+    public CRDTManager(int localUserId, DocumentStore store) {
+        this(localUserId, store, OperationHistory.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param store Where documents are persisted, or null to keep them in memory only
+     * @param historyCapacity How many recent operations each document keeps
+     */
+    public CRDTManager(int localUserId, DocumentStore store, int historyCapacity) {
         docID = 1; // Initialize document ID
         userId = 1; // Initialize user ID
         this.localUserId = localUserId;
+        this.store = store;
+        this.historyCapacity = historyCapacity;
+        if (store != null) {
+            // Only codes are registered here; each CRDT is read in on first use
+            for (DocumentStore.Entry entry : store.documents()) {
+                register(new DocumentState(entry.getDocumentKey(), null, this::load, historyCapacity), entry.getEditorCode(), entry.getViewerCode());
+                docID = Math.max(docID, entry.getDocumentKey() + 1);
+            }
+            // IDs handed out before the restart may still be on characters in the documents
+            userId = Math.max(userId, store.userIdLimit());
+        }
         this.network = new CRDTNetworkService(new NetworkHandler() {
             @Override
             public void sendOperation(Operation op) {
@@ -102,25 +148,31 @@ public class CRDTManager {
     }
 
     public void insertLocal(String Documentcode, char value, int ID) {
-        long timestamp = System.currentTimeMillis();
-        CRDT.CharacterId id = new CRDT.CharacterId(timestamp, ID);
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(Documentcode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Document code not found"));
-        CRDT crdt = crdtMap.get(documentKey);
+        CRDT.CharacterId id = new CRDT.CharacterId(clock.tick(), ID);
+        CRDT crdt = requireDocument(Documentcode).getCrdt();
         crdt.insert(id, value);
-        network.sendInsert(id, value, crdt.nodeMap.get(id).parentId);
+        network.sendInsert(id, value, crdt.getParentId(id));
+    }
+
+    /**
+     * Insert a whole string at a visible position, e.g. for a paste or an import. The anchor
+     * is resolved once and the characters take consecutive clock values, so they go into the
+     * tree as one run and out as one operation.
+     */
+    public void insertString(String Documentcode, int position, CharSequence text, int ID) {
+        if (text.length() == 0) {
+            return;
+        }
+        CRDT crdt = requireDocument(Documentcode).getCrdt();
+        int anchor = Math.min(position, crdt.getVisibleLength());
+        CRDT.CharacterId parentId = anchor > 0 ? crdt.getCharacterIdAtPosition(anchor - 1) : CRDT.CharacterId.ROOT;
+        CRDT.CharacterId id = new CRDT.CharacterId(clock.tick(text.length()), ID);
+        crdt.insert(id, parentId, text);
+        network.sendInsert(id, text, parentId);
     }
 
     public void deleteLocal(String Documentcode, CRDT.CharacterId id) {
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(Documentcode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Document code not found"));
-        CRDT crdt = crdtMap.get(documentKey);
+        CRDT crdt = requireDocument(Documentcode).getCrdt();
         boolean deleted = crdt.delete(id);
         if (deleted) {
             network.sendDelete(id);
@@ -130,93 +182,212 @@ public class CRDTManager {
     }
 
     public void insertRemote(String Documentcode, Operation op) {
-        CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
-        CRDT.CharacterId parentId = (op.getParentID() != -1)
-            ? new CRDT.CharacterId(op.getParentTimestamp(), op.getParentID())
-            : null;
-        CRDT.Node node = new CRDT.Node(id, parentId, op.getValue().charAt(0), false);
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(Documentcode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Document code not found"));
-        System.out.println("Document code found: " + documentKey);
-        CRDT crdt = crdtMap.get(documentKey);
-        crdt.nodeMap.put(id, node);
-
-        CRDT.Node parent = crdt.nodeMap.get(parentId);
-        if (parent != null) {
-            parent.addChild(node);
-        } else {
-            crdt.nodeMap.get(null).addChild(node);
-        }
+        apply(requireDocument(Documentcode).getCrdt(), op);
     }
 
     public void deleteRemote(String Documentcode, Operation op) {
+        apply(requireDocument(Documentcode).getCrdt(), op);
+    }
+
+    public void undeleteRemote(String Documentcode, Operation op) {
+        apply(requireDocument(Documentcode).getCrdt(), op);
+    }
+
+    private void apply(CRDT crdt, Operation op) {
         CRDT.CharacterId id = new CRDT.CharacterId(op.getTimestamp(), op.getID());
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(Documentcode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Document code not found"));
-        CRDT crdt = crdtMap.get(documentKey);
-        crdt.delete(id);
+        clock.observe(op.getTimestamp() + op.runLength() - 1);
+        if (op.getOp().equals("insert")) {
+            CRDT.CharacterId parentId = (op.getParentID() != -1)
+                ? new CRDT.CharacterId(op.getParentTimestamp(), op.getParentID())
+                : null;
+            crdt.insert(id, parentId, op.getValue());
+        } else if (op.getOp().equals("delete")) {
+            crdt.delete(id, op.runLength());
+        } else if (op.getOp().equals("undelete")) {
+            crdt.undelete(id, op.runLength());
+        }
+    }
+
+    /**
+     * Snapshot a document and drop the part of its log the snapshot covers. Must run on the
+     * document's stripe. Documents that were never read in have nothing new to compact.
+     */
+    public void compact(int documentKey) {
+        DocumentState state = states.get(documentKey);
+        if (store != null && state != null && state.isLoaded()) {
+            store.compact(documentKey, state.get(), state.history().lastSequence());
+        }
+    }
+
+    /**
+     * Give an operation the document's next sequence number and keep it in the document's
+     * history. Once the history is full, the document is snapshotted and the older half of
+     * the history dropped, so neither the history nor the log grows without bound. Must run
+     * on the document's stripe, before the operation is logged.
+     * @return The sequence number
+     */
+    public long record(DocumentHandle document, Operation op) {
+        OperationHistory history = document.getHistory();
+        if (history.isFull()) {
+            compact(document.getDocumentKey());
+            history.dropOldest(history.capacity() / 2);
+        }
+        return history.append(op);
+    }
+
+    /**
+     * Write a document out and drop it from memory; the next lookup reads it back in. Must
+     * run on the document's stripe.
+     * @return Whether it was dropped; documents without storage always stay in memory
+     */
+    public boolean hibernate(int documentKey) {
+        DocumentState state = states.get(documentKey);
+        CRDT crdt = state != null ? state.peek() : null;
+        if (store == null || crdt == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        store.compact(documentKey, crdt, state.history().lastSequence());
+        boolean dropped = state.unload();
+        if (dropped) {
+            evictions.incrementAndGet();
+            evictionNanos.addAndGet(System.nanoTime() - start);
+        }
+        return dropped;
+    }
+
+    /**
+     * Documents in memory right now
+     */
+    Collection<DocumentState> loadedDocuments() {
+        List<DocumentState> loaded = new ArrayList<>();
+        for (DocumentState state : states.values()) {
+            if (state.isLoaded()) {
+                loaded.add(state);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * How many documents are in memory, roughly how much heap they take, and how often and
+     * how fast documents were hibernated and read back in
+     */
+    public Map<String, Object> getMemoryStats() {
+        long loaded = 0;
+        long bytes = 0;
+        for (DocumentState state : states.values()) {
+            CRDT crdt = state.peek();
+            if (crdt != null) {
+                loaded++;
+                bytes += crdt.estimatedBytes();
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("documents", states.size());
+        stats.put("loadedDocuments", loaded);
+        stats.put("estimatedBytes", bytes);
+        stats.put("evictions", evictions.get());
+        stats.put("evictionMillisAverage", averageMillis(evictionNanos.get(), evictions.get()));
+        stats.put("rehydrations", rehydrations.get());
+        stats.put("rehydrationMillisAverage", averageMillis(rehydrationNanos.get(), rehydrations.get()));
+        return stats;
+    }
+
+    private static double averageMillis(long nanos, long count) {
+        return count == 0 ? 0 : nanos / 1_000_000.0 / count;
+    }
+
+    /**
+     * Read a stored document in: its snapshot, then the logged operations after it, which
+     * also go back into its history
+     */
+    private CRDT load(int documentKey) {
+        long start = System.nanoTime();
+        int[] replayed = new int[1];
+        CRDT crdt = store.load(documentKey, states.get(documentKey).history(), (loaded, op) -> {
+            apply(loaded, op);
+            replayed[0]++;
+        });
+        long elapsed = System.nanoTime() - start;
+        rehydrations.incrementAndGet();
+        rehydrationNanos.addAndGet(elapsed);
+        System.out.println("Loaded document " + documentKey + " with " + replayed[0] + " logged operations in "
+            + elapsed / 1_000_000 + " ms");
+        return crdt;
+    }
+
+    private void register(DocumentState state, String editorCode, String viewerCode) {
+        states.put(state.getDocumentKey(), state);
+        documents.put(editorCode, new DocumentHandle(state, DocumentHandle.Role.EDITOR, editorCode, viewerCode));
+        documents.put(viewerCode, new DocumentHandle(state, DocumentHandle.Role.VIEWER, editorCode, viewerCode));
+    }
+
+    private synchronized int nextUserId() {
+        if (userId == Integer.MAX_VALUE) {
+            // Every non-negative int can author characters (see CRDT.CharacterId.pack); past
+            // that, IDs would wrap around onto ones already handed out
+            throw new IllegalStateException("No user IDs left");
+        }
+        if (store != null && userId >= store.userIdLimit()) {
+            store.reserveUserIds((int) Math.min((long) userId + USER_ID_BLOCK, Integer.MAX_VALUE));
+        }
+        return userId++;
     }
 
     public String getDocumentText(String Documentcode) {
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(Documentcode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Document code not found"));
-        CRDT crdt = crdtMap.get(documentKey);
+        CRDT crdt = requireDocument(Documentcode).getCrdt();
         return crdt.getVisibleString();
     }
 
     public void printCRDT(String Documentcode) {
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(Documentcode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Document code not found"));
-        CRDT crdt = crdtMap.get(documentKey);
+        CRDT crdt = requireDocument(Documentcode).getCrdt();
         crdt.printTree();
     }
 
     public CRDT getCRDT(String Documentcode) {
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(Documentcode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Document code not found"));
-        CRDT crdt = crdtMap.get(documentKey);
+        CRDT crdt = requireDocument(Documentcode).getCrdt();
         return crdt;
     }
 
-    public String getViewerCode(String documentcode) {
-        for (Map.Entry<Integer, List<String>> entry : generatedCodes.entrySet()) {
-            List<String> codes = entry.getValue();
-            if (codes.contains(documentcode)) {
-                return codes.get(0); // Return the viewer code
-            }
-        }
-        return null; // Document code not found
+    /**
+     * Internal key of the document an editor or viewer code belongs to, or -1 if the code is
+     * unknown. Both codes of a document map to the same key.
+     */
+    public int getDocumentKey(String documentCode) {
+        DocumentHandle document = documents.get(documentCode);
+        return document != null ? document.getDocumentKey() : -1;
     }
 
-    public List<Integer> getUserIds(String sessionCode) {
-        // Find the docID associated with the session code in the generatedCodes map
-        int documentKey = generatedCodes.entrySet().stream()
-            .filter(entry -> entry.getValue().contains(sessionCode))
-            .map(Map.Entry::getKey)
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Session code not found"));
+    /**
+     * Document, role and topics for an editor or viewer code, or null if the code is unknown
+     */
+    public DocumentHandle getDocument(String documentCode) {
+        return documents.get(documentCode);
+    }
 
-        // Find all user IDs that have this docID as a value in the userIds map
-        List<Integer> userIdsForDocument = userIds.entrySet().stream()
-            .filter(entry -> entry.getValue() == documentKey)
-            .map(Map.Entry::getKey)
-            .collect(Collectors.toList());
+    private DocumentHandle requireDocument(String documentCode) {
+        DocumentHandle document = documents.get(documentCode);
+        if (document == null) {
+            throw new IllegalArgumentException("Document code not found");
+        }
+        return document;
+    }
 
-        return userIdsForDocument;
+    /**
+     * Random code that no document uses yet. Only called from the synchronized CreateDocument,
+     * so nothing can claim it between the check and the put.
+     */
+    private String newCode() {
+        String code;
+        do {
+            code = UUID.randomUUID().toString().substring(0, 6).toUpperCase();
+        } while (documents.containsKey(code));
+        return code;
+    }
+
+    public String getViewerCode(String documentcode) {
+        DocumentHandle document = documents.get(documentcode);
+        return document != null ? document.getViewerCode() : null; // null if the code is unknown
     }
 }
@@ -9,11 +9,18 @@ public class CRDTNetworkService {
     }
 
     public void sendInsert(CRDT.CharacterId id, char value, CRDT.CharacterId parentId) {
+        sendInsert(id, String.valueOf(value), parentId);
+    }
+
+    /**
+     * Send a run of characters as a single insert operation
+     */
+    public void sendInsert(CRDT.CharacterId id, CharSequence text, CRDT.CharacterId parentId) {
         Operation op = new Operation();
         op.setOp("insert");
         op.setID(id.userId);
         op.setTimestamp(id.timestamp);
-        op.setValue(String.valueOf(value));
+        op.setValue(text.toString());
         if (parentId != null) {
             op.setParentID(parentId.userId);
             op.setParentTimestamp(parentId.timestamp);
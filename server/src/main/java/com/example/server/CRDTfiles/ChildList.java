@@ -0,0 +1,72 @@
+package com.example.server.CRDTfiles;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Children of a CRDT node. Callers keep the list sorted; new children almost always land at
+ * one end (newest-first ordering puts them at the front, oldest-first at the back), so the
+ * backing array keeps free slots on both sides. Inserting at either end is amortized O(1)
+ * and an insert in the middle shifts whichever side is shorter.
+ */
+class ChildList extends AbstractList<CRDT.Node> implements RandomAccess {
+    private CRDT.Node[] items = new CRDT.Node[4];
+    private int head; // slot of the first child
+    private int size;
+
+    @Override
+    public CRDT.Node get(int index) {
+        Objects.checkIndex(index, size);
+        return items[head + index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(int index, CRDT.Node node) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (index < size / 2) {
+            // Shift the front part one slot to the left
+            if (head == 0) {
+                recenter();
+            }
+            System.arraycopy(items, head, items, head - 1, index);
+            head--;
+        } else {
+            // Shift the back part one slot to the right
+            if (head + size == items.length) {
+                recenter();
+            }
+            System.arraycopy(items, head + index, items, head + index + 1, size - index);
+        }
+        items[head + index] = node;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(items, null);
+        head = 0;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Move the children into a fresh array with free slots split evenly on both sides
+     */
+    private void recenter() {
+        CRDT.Node[] grown = new CRDT.Node[size * 2 + 2];
+        int newHead = (grown.length - size) / 2;
+        System.arraycopy(items, head, grown, newHead, size);
+        items = grown;
+        head = newHead;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.server.CRDTfiles;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs work for one document strictly one task at a time, in submission order, while
+ * different documents proceed in parallel. Documents are hashed onto a fixed set of
+ * single-threaded stripes, one per core by default, so a document's CRDT only ever has one
+ * writer and never needs a lock.
+ */
+public class DocumentExecutor {
+    private final ExecutorService[] stripes;
+
+    public DocumentExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public DocumentExecutor(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Need at least one stripe");
+        }
+        stripes = new ExecutorService[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            String name = "document-" + i;
+            stripes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Queue a task behind everything already submitted for the same document
+     */
+    public void execute(int documentKey, Runnable task) {
+        stripeFor(documentKey).execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Keep the stripe's thread alive for the documents queued behind this one
+                System.err.println("Task for document " + documentKey + " failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Queue a task that produces a result, e.g. a read that must see a consistent document
+     */
+    public <T> CompletableFuture<T> submit(int documentKey, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, stripeFor(documentKey));
+    }
+
+    public void shutdown() {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService stripe : stripes) {
+            if (!stripe.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ExecutorService stripeFor(int documentKey) {
+        return stripes[Math.floorMod(documentKey, stripes.length)];
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.server.CRDTfiles;
+
+/**
+ * What a document code resolves to: the document's CRDT, whether the code grants editing or
+ * only viewing, and where the document's messages are broadcast. A document has one
+ * handle per code; both share the CRDT and key through one {@link DocumentState}, and the
+ * same topics, so editors and viewers get one copy of each message.
+ */
+public final class DocumentHandle {
+    public enum Role { EDITOR, VIEWER }
+
+    /**
+     * Start of every per-document topic; these are keyed by document, not by code
+     */
+    public static final String TOPIC_PREFIX = "/topic/doc/";
+
+    private final DocumentState state;
+    private final Role role;
+    private final String editorCode;
+    private final String viewerCode;
+    private final String operationTopic;
+    private final String usersTopic;
+    private final String cursorTopic;
+
+    DocumentHandle(DocumentState state, Role role, String editorCode, String viewerCode) {
+        this.state = state;
+        this.role = role;
+        this.editorCode = editorCode;
+        this.viewerCode = viewerCode;
+        // Built once here rather than concatenated for every broadcast
+        String prefix = TOPIC_PREFIX + state.getDocumentKey();
+        this.operationTopic = prefix + "/operation";
+        this.usersTopic = prefix + "/users";
+        this.cursorTopic = prefix + "/cursor";
+    }
+
+    public int getDocumentKey() {
+        return state.getDocumentKey();
+    }
+
+    /**
+     * The document's CRDT, read in from storage first if this is its first use
+     */
+    public CRDT getCrdt() {
+        return state.get();
+    }
+
+    /**
+     * The document's recent operations with their sequence numbers. Reads the document in
+     * first, which restores them; only to be used on the document's stripe.
+     */
+    public OperationHistory getHistory() {
+        state.get();
+        return state.history();
+    }
+
+    public boolean isLoaded() {
+        return state.isLoaded();
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public boolean canEdit() {
+        return role == Role.EDITOR;
+    }
+
+    public String getEditorCode() {
+        return editorCode;
+    }
+
+    public String getViewerCode() {
+        return viewerCode;
+    }
+
+    /**
+     * Topic the document's operations are broadcast on
+     */
+    public String getOperationTopic() {
+        return operationTopic;
+    }
+
+    /**
+     * Topic for joined/left deltas of the document's members
+     */
+    public String getUsersTopic() {
+        return usersTopic;
+    }
+
+    /**
+     * Topic for the document's cursor positions
+     */
+    public String getCursorTopic() {
+        return cursorTopic;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.server.CRDTfiles;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Keeps the documents held in memory within a budget. Every pass looks at the loaded
+ * documents nobody is in: those idle for longer than the idle limit are hibernated, and
+ * while the estimated total is over the memory budget, so are the least recently used of
+ * the rest. Hibernation runs on the document's stripe and is skipped if the document was
+ * used or joined in the meantime; see {@link CRDTManager#hibernate}.
+ */
+public class DocumentHibernator implements AutoCloseable {
+    private final CRDTManager manager;
+    private final DocumentExecutor executor;
+    private final IntPredicate inUse;
+    private final long memoryBudgetBytes;
+    private final long idleNanos;
+    private final ScheduledExecutorService scheduler;
+    // Documents with a hibernation queued, so a slow one is not queued again
+    private final Set<Integer> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param inUse Whether anyone is in a document, by key; those are never hibernated
+     */
+    public DocumentHibernator(CRDTManager manager, DocumentExecutor executor, IntPredicate inUse, long memoryBudgetBytes,
+            long idleMillis, long intervalMillis) {
+        this.manager = manager;
+        this.executor = executor;
+        this.inUse = inUse;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "document-hibernator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::scheduledScan, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue hibernation for every document the policy picks
+     * @return How many were queued
+     */
+    public int scan() {
+        long now = System.nanoTime();
+        long totalBytes = 0;
+        List<DocumentState> candidates = new ArrayList<>();
+        for (DocumentState state : manager.loadedDocuments()) {
+            CRDT crdt = state.peek();
+            if (crdt == null) {
+                continue;
+            }
+            totalBytes += crdt.estimatedBytes();
+            if (!inUse.test(state.getDocumentKey()) && !queued.contains(state.getDocumentKey())) {
+                candidates.add(state);
+            }
+        }
+
+        // Least recently used first: once one is neither idle nor needed for the budget,
+        // none of the rest is either
+        candidates.sort(Comparator.comparingLong(DocumentState::lastAccess));
+        int count = 0;
+        for (DocumentState state : candidates) {
+            long lastAccess = state.lastAccess();
+            boolean idle = now - lastAccess >= idleNanos;
+            if (!idle && totalBytes <= memoryBudgetBytes) {
+                break;
+            }
+            CRDT crdt = state.peek();
+            if (crdt == null) {
+                continue;
+            }
+            totalBytes -= crdt.estimatedBytes();
+            queue(state, lastAccess);
+            count++;
+        }
+        return count;
+    }
+
+    private void queue(DocumentState state, long lastAccess) {
+        int documentKey = state.getDocumentKey();
+        queued.add(documentKey);
+        executor.execute(documentKey, () -> {
+            try {
+                // Operations queued ahead of this one count as a use
+                if (state.lastAccess() == lastAccess && !inUse.test(documentKey)) {
+                    manager.hibernate(documentKey);
+                }
+            } finally {
+                queued.remove(documentKey);
+            }
+        });
+    }
+
+    private void scheduledScan() {
+        try {
+            scan();
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule; the next pass tries again
+            System.err.println("Document hibernation scan failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.server.CRDTfiles;
+
+import java.util.function.IntFunction;
+
+/**
+ * The CRDT and recent operations shared by a document's editor and viewer handles. A document registered from
+ * storage starts out unloaded and reads its CRDT in on first use, so startup only has to
+ * register codes, however many documents there are. A stored document can also be unloaded
+ * again while it is cold, and is then read back in the same way.
+ */
+final class DocumentState {
+    private final int documentKey;
+    // null for documents that only live in memory and can never be unloaded
+    private final IntFunction<CRDT> loader;
+    private volatile CRDT crdt;
+    // Only touched on the document's stripe, like the CRDT
+    private final OperationHistory history;
+    // System.nanoTime() of the last get()
+    private volatile long lastAccess = System.nanoTime();
+
+    /**
+     * @param crdt The CRDT if it is in memory already, e.g. for a new document, otherwise null
+     * @param loader Reads the CRDT in from storage, or null if the document has no storage;
+     *     it restores the history too
+     */
+    DocumentState(int documentKey, CRDT crdt, IntFunction<CRDT> loader, int historyCapacity) {
+        if (crdt == null && loader == null) {
+            throw new IllegalArgumentException("Document " + documentKey + " needs a CRDT or a way to load one");
+        }
+        this.documentKey = documentKey;
+        this.crdt = crdt;
+        this.loader = loader;
+        this.history = new OperationHistory(historyCapacity);
+    }
+
+    int getDocumentKey() {
+        return documentKey;
+    }
+
+    CRDT get() {
+        lastAccess = System.nanoTime();
+        CRDT loaded = crdt;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = crdt;
+                if (loaded == null) {
+                    loaded = loader.apply(documentKey);
+                    crdt = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Operations applied since the document was last read in, as far as they are kept.
+     * Only complete once get() has read the document in.
+     */
+    OperationHistory history() {
+        return history;
+    }
+
+    /**
+     * The CRDT if it is in memory, without loading it or counting as an access
+     */
+    CRDT peek() {
+        return crdt;
+    }
+
+    boolean isLoaded() {
+        return crdt != null;
+    }
+
+    long lastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Drop the CRDT and the history so that the next get() reads them in again. Only for
+     * stored documents, only once everything in them is on disk, and only on the stripe.
+     * @return Whether it was dropped
+     */
+    synchronized boolean unload() {
+        if (loader == null || crdt == null) {
+            return false;
+        }
+        crdt = null;
+        // Numbering carries on where it stopped
+        history.reset(history.lastSequence());
+        return true;
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.server.CRDTfiles;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Map from a packed character ID (see {@link CRDT.CharacterId#key()}) to the node holding
+ * that character. A node holds a run of characters from one author with consecutive
+ * timestamps and is stored under the ID of its first character, so entries are kept sorted
+ * by author, then timestamp: the node for any character of a run is the floor entry of its
+ * ID. Keys live in chunks of primitive longs, so lookups and inserts never box or allocate.
+ * Nodes are only ever tombstoned, never removed.
+ */
+public class NodeMap {
+    private static final int CHUNK_SIZE = 512;
+    private static final int TIMESTAMP_BITS = 32;
+    private static final long TIMESTAMP_MASK = (1L << TIMESTAMP_BITS) - 1;
+
+    private long[][] keys = new long[4][];
+    private CRDT.Node[][] values = new CRDT.Node[4][];
+    private int[] sizes = new int[4];
+    private int chunkCount;
+    private int size;
+    // Largest character ID stored, in CharacterId order; see lower()
+    private long last = CRDT.CharacterId.ROOT_KEY;
+
+    /**
+     * Node holding the character with the given packed ID, or null
+     */
+    public CRDT.Node get(long key) {
+        long location = floor(sortKey(key));
+        if (location < 0) {
+            return null;
+        }
+        CRDT.Node node = values[chunkOf(location)][indexOf(location)];
+        return node.covers(key) ? node : null;
+    }
+
+    public CRDT.Node get(CRDT.CharacterId id) {
+        return id != null ? get(id.key()) : null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Store a node under the ID of its first character
+     * @return The node previously stored under exactly that key, or null
+     */
+    public CRDT.Node put(long key, CRDT.Node node) {
+        if (node == null) {
+            throw new IllegalArgumentException("Node must not be null");
+        }
+        long sortKey = sortKey(key);
+        if (chunkCount == 0) {
+            insertChunk(0, new long[CHUNK_SIZE], new CRDT.Node[CHUNK_SIZE], 0);
+        }
+        int c = Math.max(chunkFor(sortKey), 0);
+        int pos = Arrays.binarySearch(keys[c], 0, sizes[c], sortKey);
+        if (pos >= 0) {
+            CRDT.Node previous = values[c][pos];
+            values[c][pos] = node;
+            return previous;
+        }
+        pos = -pos - 1;
+
+        if (sizes[c] == CHUNK_SIZE) {
+            if (c == chunkCount - 1 && pos == CHUNK_SIZE) {
+                // Appending past the end: start a fresh chunk and leave this one full
+                insertChunk(c + 1, new long[CHUNK_SIZE], new CRDT.Node[CHUNK_SIZE], 0);
+                c++;
+                pos = 0;
+            } else {
+                int half = CHUNK_SIZE / 2;
+                long[] upperKeys = new long[CHUNK_SIZE];
+                CRDT.Node[] upperValues = new CRDT.Node[CHUNK_SIZE];
+                System.arraycopy(keys[c], half, upperKeys, 0, CHUNK_SIZE - half);
+                System.arraycopy(values[c], half, upperValues, 0, CHUNK_SIZE - half);
+                Arrays.fill(values[c], half, CHUNK_SIZE, null);
+                sizes[c] = half;
+                insertChunk(c + 1, upperKeys, upperValues, CHUNK_SIZE - half);
+                if (pos > half) {
+                    c++;
+                    pos -= half;
+                }
+            }
+        }
+        System.arraycopy(keys[c], pos, keys[c], pos + 1, sizes[c] - pos);
+        System.arraycopy(values[c], pos, values[c], pos + 1, sizes[c] - pos);
+        keys[c][pos] = sortKey;
+        values[c][pos] = node;
+        sizes[c]++;
+        size++;
+        appended(node);
+        return null;
+    }
+
+    /**
+     * Record that a stored node's run grew in place
+     */
+    public void appended(CRDT.Node node) {
+        if (node.key == CRDT.CharacterId.ROOT_KEY) {
+            return;
+        }
+        // A run's timestamps are consecutive, so its largest character is one of its ends
+        raiseLast(node.key);
+        raiseLast(node.lastKey());
+    }
+
+    private void raiseLast(long key) {
+        if (last == CRDT.CharacterId.ROOT_KEY || CRDT.CharacterId.compare(key, last) > 0) {
+            last = key;
+        }
+    }
+
+    /**
+     * Number of nodes, i.e. runs, not characters
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        keys = new long[4][];
+        values = new CRDT.Node[4][];
+        sizes = new int[4];
+        chunkCount = 0;
+        size = 0;
+        last = CRDT.CharacterId.ROOT_KEY;
+    }
+
+    /**
+     * Visit every stored node, ordered by author and then timestamp
+     */
+    public void forEach(Consumer<CRDT.Node> action) {
+        for (int c = 0; c < chunkCount; c++) {
+            for (int i = 0; i < sizes[c]; i++) {
+                action.accept(values[c][i]);
+            }
+        }
+    }
+
+    /**
+     * Largest stored character ID strictly smaller than the given one in CharacterId order,
+     * or ROOT_KEY if there is none. An ID newer than every stored character, which is what a
+     * Lamport clock hands out for a local insert, takes O(1): the answer is the largest one.
+     * Any other ID is answered per author, O(authors * log n), because a run of one author
+     * may span the IDs of others; runs have to be found by author and timestamp.
+     */
+    public long lower(long key) {
+        if (last == CRDT.CharacterId.ROOT_KEY || CRDT.CharacterId.compare(last, key) < 0) {
+            return last;
+        }
+        long targetTimestamp = CRDT.CharacterId.timestampOf(key);
+        int targetUser = CRDT.CharacterId.userIdOf(key);
+        long best = CRDT.CharacterId.ROOT_KEY;
+        long location = next(-1);
+        while (location >= 0) {
+            int user = CRDT.CharacterId.userIdOf(values[chunkOf(location)][indexOf(location)].key);
+            if (user >= 0) {
+                // Same timestamp only sorts lower for a smaller user ID
+                long limit = user < targetUser ? targetTimestamp : targetTimestamp - 1;
+                long candidate = limit >= 0 ? lastCharacterUpTo(user, limit) : CRDT.CharacterId.ROOT_KEY;
+                if (candidate != CRDT.CharacterId.ROOT_KEY
+                        && (best == CRDT.CharacterId.ROOT_KEY || CRDT.CharacterId.compare(candidate, best) > 0)) {
+                    best = candidate;
+                }
+            }
+            // Skip to the first entry of the next author
+            location = next(floor(sortKey(user, TIMESTAMP_MASK)));
+        }
+        return best;
+    }
+
+    /**
+     * Packed ID of the author's last character with a timestamp of at most limit, or ROOT_KEY
+     */
+    private long lastCharacterUpTo(int user, long limit) {
+        long location = floor(sortKey(user, limit));
+        if (location < 0) {
+            return CRDT.CharacterId.ROOT_KEY;
+        }
+        CRDT.Node node = values[chunkOf(location)][indexOf(location)];
+        if (CRDT.CharacterId.userIdOf(node.key) != user) {
+            return CRDT.CharacterId.ROOT_KEY;
+        }
+        long last = Math.min(CRDT.CharacterId.timestampOf(node.key) + node.length() - 1, limit);
+        return CRDT.CharacterId.pack(last, user);
+    }
+
+    // Author in the high bits, timestamp below: runs of one author sit next to each other.
+    // ROOT's (-1, -1) maps to -1 and sorts before every real author.
+    private static long sortKey(long key) {
+        return sortKey(CRDT.CharacterId.userIdOf(key), CRDT.CharacterId.timestampOf(key));
+    }
+
+    private static long sortKey(int user, long timestamp) {
+        return ((long) user << TIMESTAMP_BITS) | (timestamp & TIMESTAMP_MASK);
+    }
+
+    /**
+     * Location (chunk in the high half, index in the low half) of the last entry whose sort
+     * key is at most the given one, or -1
+     */
+    private long floor(long sortKey) {
+        int c = chunkFor(sortKey);
+        if (c < 0) {
+            return -1;
+        }
+        int pos = Arrays.binarySearch(keys[c], 0, sizes[c], sortKey);
+        return location(c, pos >= 0 ? pos : -pos - 2);
+    }
+
+    /**
+     * Location of the entry after the given one (-1 for the first entry), or -1 at the end
+     */
+    private long next(long location) {
+        int c = location < 0 ? 0 : chunkOf(location);
+        int pos = location < 0 ? 0 : indexOf(location) + 1;
+        while (c < chunkCount) {
+            if (pos < sizes[c]) {
+                return location(c, pos);
+            }
+            c++;
+            pos = 0;
+        }
+        return -1;
+    }
+
+    private static long location(int chunk, int index) {
+        return ((long) chunk << 32) | index;
+    }
+
+    private static int chunkOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int indexOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * Index of the last chunk whose first key is at most the given key, or -1
+     */
+    private int chunkFor(long sortKey) {
+        int low = 0;
+        int high = chunkCount - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sizes[mid] > 0 && keys[mid][0] <= sortKey) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private void insertChunk(int index, long[] chunkKeys, CRDT.Node[] chunkValues, int chunkSize) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            values = Arrays.copyOf(values, chunkCount * 2);
+            sizes = Arrays.copyOf(sizes, chunkCount * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+        System.arraycopy(values, index, values, index + 1, chunkCount - index);
+        System.arraycopy(sizes, index, sizes, index + 1, chunkCount - index);
+        keys[index] = chunkKeys;
+        values[index] = chunkValues;
+        sizes[index] = chunkSize;
+        chunkCount++;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.server.CRDTfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.server.Operation;
+
+/**
+ * The most recent operations applied to a document, in a ring that grows up to a fixed
+ * capacity, so idle documents do not pay for a full one. Every operation
+ * gets the next sequence number of its document on the way in, so "everything after N" is a
+ * contiguous slice. Once the ring is full, older operations have to be covered by a snapshot
+ * before they are dropped (see {@link CRDTManager#compact}). Not thread-safe: like the CRDT,
+ * it is only used on the document's stripe.
+ */
+public class OperationHistory {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    private static final int INITIAL_SLOTS = 16;
+
+    private final int capacity;
+    private Operation[] ring;
+    private int head; // slot of the oldest operation
+    private int size;
+    private long lastSequence;
+
+    public OperationHistory(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("History needs room for at least two operations");
+        }
+        this.capacity = capacity;
+        this.ring = new Operation[Math.min(capacity, INITIAL_SLOTS)];
+    }
+
+    /**
+     * Give an operation the next sequence number and keep it. If the ring is already full,
+     * the oldest operation makes room.
+     * @return The sequence number
+     */
+    public long append(Operation operation) {
+        operation.setSequence(lastSequence + 1);
+        restore(operation);
+        return lastSequence;
+    }
+
+    /**
+     * Keep an operation that already has its sequence number, e.g. one replayed from the log
+     */
+    public void restore(Operation operation) {
+        if (operation.getSequence() <= lastSequence) {
+            throw new IllegalArgumentException("Sequence " + operation.getSequence() + " is not after " + lastSequence);
+        }
+        if (operation.getSequence() != lastSequence + 1) {
+            // A gap, e.g. operations logged before a snapshot: they can no longer be listed
+            reset(operation.getSequence() - 1);
+        }
+        if (size == capacity) {
+            dropOldest(1);
+        } else if (size == ring.length) {
+            grow();
+        }
+        ring[(head + size) % ring.length] = operation;
+        size++;
+        lastSequence = operation.getSequence();
+    }
+
+    private void grow() {
+        Operation[] grown = new Operation[(int) Math.min((long) ring.length * 2, capacity)];
+        for (int i = 0; i < size; i++) {
+            grown[i] = ring[(head + i) % ring.length];
+        }
+        ring = grown;
+        head = 0;
+    }
+
+    /**
+     * Forget every operation, and continue numbering after the given sequence
+     */
+    public void reset(long sequence) {
+        ring = new Operation[Math.min(capacity, INITIAL_SLOTS)];
+        head = 0;
+        size = 0;
+        lastSequence = sequence;
+    }
+
+    public void dropOldest(int count) {
+        count = Math.min(count, size);
+        for (int i = 0; i < count; i++) {
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+        }
+        size -= count;
+    }
+
+    /**
+     * Operations after the given sequence number, oldest first
+     * @return null if some of them are no longer kept
+     */
+    public List<Operation> since(long sequence) {
+        if (sequence >= lastSequence) {
+            return List.of();
+        }
+        if (sequence < firstSequence() - 1) {
+            return null;
+        }
+        int skip = (int) (sequence - (firstSequence() - 1));
+        List<Operation> operations = new ArrayList<>(size - skip);
+        for (int i = skip; i < size; i++) {
+            operations.add(ring[(head + i) % ring.length]);
+        }
+        return operations;
+    }
+
+    /**
+     * Sequence number of the last operation applied to the document, kept or not
+     */
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Sequence number of the oldest operation still kept; lastSequence() + 1 when empty
+     */
+    public long firstSequence() {
+        return lastSequence - size + 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+}
@@ -1,5 +1,10 @@
 package com.example.server;
 
+/**
+ * An edit as sent over the wire. The value may hold a run of characters from one author:
+ * character i of an insert has the ID (timestamp + i, ID) and the character before it as its
+ * parent, and a delete removes value.length() consecutive IDs starting at (timestamp, ID).
+ */
 public class Operation{
 
     private String op;
@@ -8,6 +13,8 @@ public class Operation{
     private String value;
     private int parentID;
     private long parentTimestamp;
+    // Assigned by the server, in the order operations are applied to the document
+    private long sequence;
 
     public Operation()
     {
@@ -50,6 +57,13 @@ public class Operation{
     public void setValue(String value) {
         this.value = value;
     }
+
+    /**
+     * Number of characters the operation covers; a delete without a value covers one
+     */
+    public int runLength() {
+        return value == null || value.isEmpty() ? 1 : value.length();
+    }
     public int getParentID() {
         return parentID;
     }
@@ -62,5 +76,11 @@ public class Operation{
     public void setParentTimestamp(long parentTimestamp) {
         this.parentTimestamp = parentTimestamp;
     }
+    public long getSequence() {
+        return sequence;
+    }
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.example.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reply to a client catching up on a document. Either the operations it missed, oldest
+ * first, or, when those are no longer all kept, a snapshot of the whole document instead.
+ * Either way the client is up to date as of sequence afterwards. Long runs of operations
+ * are split over several messages; only the last one has last set.
+ */
+public class SyncMessage {
+
+    private long sequence;
+    // Base64 encoded CRDTSnapshot, or null when operations are sent instead
+    private String snapshot;
+    private List<Operation> operations;
+    private boolean last;
+
+    public SyncMessage()
+    {
+
+    }
+
+    public SyncMessage(long sequence, String snapshot, List<Operation> operations, boolean last) {
+        this.sequence = sequence;
+        this.snapshot = snapshot;
+        this.operations = operations;
+        this.last = last;
+    }
+
+    /**
+     * Split missed operations into messages of at most operationsPerFrame each, and of at
+     * most charactersPerFrame characters of values, so a run of long pastes cannot make a
+     * message too large to send. An operation longer than that on its own gets a message
+     * to itself.
+     * @param sequence Sequence number the client is up to date as of after the last message
+     */
+    public static List<SyncMessage> frames(List<Operation> operations, long sequence, int operationsPerFrame,
+            int charactersPerFrame) {
+        List<SyncMessage> frames = new ArrayList<>(operations.size() / operationsPerFrame + 1);
+        int start = 0;
+        do {
+            int end = start;
+            long characters = 0;
+            while (end < operations.size() && end - start < operationsPerFrame) {
+                String value = operations.get(end).getValue();
+                characters += value != null ? value.length() : 0;
+                if (characters > charactersPerFrame && end > start) {
+                    break;
+                }
+                end++;
+            }
+            boolean last = end == operations.size();
+            List<Operation> frame = operations.subList(start, end);
+            frames.add(new SyncMessage(last ? sequence : frame.get(frame.size() - 1).getSequence(), null, frame, last));
+            start = end;
+        } while (start < operations.size());
+        return frames;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    public String getSnapshot() {
+        return snapshot;
+    }
+    public void setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+    }
+    public List<Operation> getOperations() {
+        return operations;
+    }
+    public void setOperations(List<Operation> operations) {
+        this.operations = operations;
+    }
+    public boolean isLast() {
+        return last;
+    }
+    public void setLast(boolean last) {
+        this.last = last;
+    }
+
+}
@@ -1,6 +1,13 @@
 package com.example.server.config;
 
 import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentExecutor;
+import com.example.server.CRDTfiles.DocumentHibernator;
+import com.example.server.storage.DocumentStore;
+import com.example.server.storage.LogCompactor;
+import com.example.server.storage.OperationLog;
+import java.nio.file.Path;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -10,9 +17,65 @@ import org.springframework.context.annotation.Configuration;
 public class AppConfig {
 
     @Bean
-    public CRDTManager crdtManager() {
+    public CRDTManager crdtManager(DocumentStore documentStore, @Value("${collab.history.capacity}") int historyCapacity) {
         // Provide the required parameters for the CRDTManager constructor
         int userId = 1; // Example user ID
-        return new CRDTManager(userId);
+        return new CRDTManager(userId, documentStore, historyCapacity);
+    }
+
+    @Bean(destroyMethod = "close")
+    public DocumentStore documentStore(@Value("${collab.store.dir}") String directory, OperationLog operationLog) {
+        return new DocumentStore(Path.of(directory), operationLog);
+    }
+
+    @Bean(destroyMethod = "close")
+    public LogCompactor logCompactor(OperationLog operationLog, DocumentExecutor documentExecutor, CRDTManager crdtManager,
+            @Value("${collab.compaction.threshold-bytes}") long thresholdBytes,
+            @Value("${collab.compaction.interval-ms}") long intervalMillis) {
+        // Snapshots documents whose log tail has grown, on their own stripes
+        return new LogCompactor(operationLog, documentExecutor, crdtManager::compact, thresholdBytes, intervalMillis);
+    }
+
+    @Bean(destroyMethod = "close")
+    public DocumentHibernator documentHibernator(CRDTManager crdtManager, DocumentExecutor documentExecutor,
+            SessionRegistry sessionRegistry,
+            @Value("${collab.hibernation.memory-budget-bytes}") long memoryBudgetBytes,
+            @Value("${collab.hibernation.idle-ms}") long idleMillis,
+            @Value("${collab.hibernation.interval-ms}") long intervalMillis) {
+        // Documents with members stay in memory; cold ones are written out and dropped
+        return new DocumentHibernator(crdtManager, documentExecutor, key -> !sessionRegistry.getMembers(key).isEmpty(),
+            memoryBudgetBytes, idleMillis, intervalMillis);
+    }
+
+    @Bean(destroyMethod = "close")
+    public OperationCoalescer operationCoalescer(DocumentFanout documentFanout, DocumentExecutor documentExecutor,
+            @Value("${collab.broadcast.window-ms}") long windowMillis,
+            @Value("${collab.broadcast.max-operations}") int maxOperations,
+            @Value("${collab.broadcast.adaptive}") boolean adaptive) {
+        // Bursts of edits go out as one frame per window; a lone edit on a quiet document goes out at once
+        return new OperationCoalescer(documentFanout, documentExecutor, windowMillis, maxOperations, adaptive);
+    }
+
+    @Bean(destroyMethod = "close")
+    public CursorThrottle cursorThrottle(DocumentFanout documentFanout,
+            @Value("${collab.cursor.interval-ms}") long intervalMillis) {
+        // At most one merged cursor message per document per interval, newest positions only
+        return new CursorThrottle(documentFanout, intervalMillis);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public DocumentExecutor documentExecutor() {
+        // One single-threaded stripe per core; each document's operations stay on one stripe
+        return new DocumentExecutor();
+    }
+
+    @Bean(destroyMethod = "close")
+    public OperationLog operationLog(@Value("${collab.oplog.dir}") String directory,
+            @Value("${collab.oplog.segment-bytes}") int segmentBytes,
+            @Value("${collab.oplog.sync-interval-ms}") long syncIntervalMillis,
+            @Value("${collab.oplog.idle-close-ms}") long idleCloseMillis) {
+        // Appends go to mapped memory; one background flush every interval covers all documents,
+        // and logs idle for idleCloseMillis are unmapped until their next append
+        return new OperationLog(Path.of(directory), segmentBytes, syncIntervalMillis, idleCloseMillis);
     }
 }
@@ -0,0 +1,134 @@
+package com.example.server.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.example.server.CRDTfiles.DocumentHandle;
+
+/**
+ * Holds back cursor positions so each document's cursor topic gets at most one message per
+ * interval. Only the latest position of each user is kept: a caret that moved ten times
+ * since the last message is sent once, where it ended up, and the rest are dropped. The
+ * first update after a quiet interval goes out straight away; later ones are merged into
+ * one map and sent when the interval is up.
+ *
+ * Cursor messages arrive on the inbound channel's threads, not on a document's stripe, so
+ * each document's pending map is guarded by its own lock. A document's entry is dropped
+ * once a whole interval has passed with nothing to send.
+ */
+public class CursorThrottle implements AutoCloseable {
+    private final DocumentFanout fanout;
+    private final long intervalNanos;
+    private final ScheduledExecutorService timer;
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    private static final class Pending {
+        final DocumentHandle document;
+        // User ID -> "line,column", newest wins
+        Map<String, String> positions = new HashMap<>();
+        boolean flushScheduled;
+        // Set when the entry leaves the map; an update that raced it starts a new one
+        boolean removed;
+        long lastSent = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+
+        Pending(DocumentHandle document) {
+            this.document = document;
+        }
+    }
+
+    /**
+     * @param intervalMillis Shortest time between two messages on a document's cursor topic;
+     *     0 sends every update as it comes
+     */
+    public CursorThrottle(DocumentFanout fanout, long intervalMillis) {
+        this.fanout = fanout;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cursor-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Record where users' carets are and pass them on once the document's interval allows
+     */
+    public void update(DocumentHandle document, Map<String, String> positions) {
+        if (intervalNanos == 0) {
+            fanout.sendCursors(document, positions);
+            return;
+        }
+        while (true) {
+            Pending state = pending.computeIfAbsent(document.getDocumentKey(), key -> new Pending(document));
+            Map<String, String> now = null;
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                state.positions.putAll(positions);
+                if (!state.flushScheduled) {
+                    if (state.lastSent + intervalNanos - System.nanoTime() <= 0) {
+                        now = take(state);
+                    }
+                    schedule(state);
+                }
+            }
+            if (now != null) {
+                fanout.sendCursors(document, now);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Run flush when the interval after the last message is up; the caller holds the lock
+     */
+    private void schedule(Pending state) {
+        state.flushScheduled = true;
+        long wait = Math.max(0, state.lastSent + intervalNanos - System.nanoTime());
+        timer.schedule(() -> flush(state), wait, TimeUnit.NANOSECONDS);
+    }
+
+    private void flush(Pending state) {
+        Map<String, String> positions = null;
+        synchronized (state) {
+            state.flushScheduled = false;
+            if (!state.positions.isEmpty()) {
+                positions = take(state);
+                // Kept for one more interval, so the next update still waits its turn
+                schedule(state);
+            } else if (System.nanoTime() - state.lastSent < intervalNanos) {
+                schedule(state);
+            } else {
+                state.removed = true;
+                pending.remove(state.document.getDocumentKey(), state);
+            }
+        }
+        if (positions != null) {
+            fanout.sendCursors(state.document, positions);
+        }
+    }
+
+    /**
+     * Documents with an entry right now, waiting to send or in their last interval
+     */
+    int activeDocuments() {
+        return pending.size();
+    }
+
+    private static Map<String, String> take(Pending state) {
+        Map<String, String> positions = state.positions;
+        state.positions = new HashMap<>();
+        state.lastSent = System.nanoTime();
+        return positions;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
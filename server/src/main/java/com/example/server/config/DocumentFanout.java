@@ -0,0 +1,43 @@
+package com.example.server.config;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+/**
+ * Outbound messages for everyone in a document. Clients subscribe with their editor or
+ * viewer code, and {@link DocumentSubscriptionInterceptor} routes both to one topic per
+ * document, so each message is converted and handed to the broker once rather than once
+ * per code.
+ */
+@Component
+public class DocumentFanout {
+    private final SimpMessagingTemplate messagingTemplate;
+
+    public DocumentFanout(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    /**
+     * A batch of operations, in the order they were applied; see {@link OperationCoalescer}
+     */
+    public void sendOperations(DocumentHandle document, List<Operation> operations) {
+        messagingTemplate.convertAndSend(document.getOperationTopic(), operations);
+    }
+
+    /**
+     * A joined/left delta of the document's members
+     */
+    public void sendMembers(DocumentHandle document, Map<String, List<Integer>> delta) {
+        messagingTemplate.convertAndSend(document.getUsersTopic(), delta);
+    }
+
+    public void sendCursors(DocumentHandle document, Map<String, String> cursorPositions) {
+        messagingTemplate.convertAndSend(document.getCursorTopic(), cursorPositions);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.server.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+/**
+ * Routes subscriptions to a code's topics (/topic/document/{code}/operation,
+ * /topic/session/{code}/users and /topic/session/{code}/cursor) to the document's own
+ * topic, whichever of its codes was used, and records the role the code grants in the
+ * session's attributes. The document topics themselves can only be reached through a code.
+ */
+public class DocumentSubscriptionInterceptor implements ChannelInterceptor {
+    /**
+     * Session attribute holding a Map of document key to the role the session subscribed with
+     */
+    public static final String ROLES_ATTRIBUTE = "documentRoles";
+
+    private static final Pattern CODE_TOPIC = Pattern.compile("/topic/(?:document|session)/([^/]+)/(operation|users|cursor)");
+
+    private final CRDTManager crdtManager;
+
+    public DocumentSubscriptionInterceptor(CRDTManager crdtManager) {
+        this.crdtManager = crdtManager;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        if (accessor.getCommand() != StompCommand.SUBSCRIBE || accessor.getDestination() == null) {
+            return message;
+        }
+        String destination = accessor.getDestination();
+        if (destination.startsWith(DocumentHandle.TOPIC_PREFIX)) {
+            return null; // Only codes grant access to a document
+        }
+        Matcher matcher = CODE_TOPIC.matcher(destination);
+        DocumentHandle document = matcher.matches() ? crdtManager.getDocument(matcher.group(1)) : null;
+        if (document == null) {
+            return message;
+        }
+
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        if (attributes != null) {
+            @SuppressWarnings("unchecked")
+            Map<Integer, DocumentHandle.Role> roles = (Map<Integer, DocumentHandle.Role>) attributes
+                .computeIfAbsent(ROLES_ATTRIBUTE, name -> new ConcurrentHashMap<Integer, DocumentHandle.Role>());
+            // A session that subscribed with the editor code stays an editor
+            roles.merge(document.getDocumentKey(), document.getRole(),
+                (previous, role) -> previous == DocumentHandle.Role.EDITOR ? previous : role);
+        }
+
+        String topic = switch (matcher.group(2)) {
+            case "operation" -> document.getOperationTopic();
+            case "users" -> document.getUsersTopic();
+            default -> document.getCursorTopic();
+        };
+        accessor.setDestination(topic);
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+
+    /**
+     * Role the session subscribed to a document with, or null if it has not subscribed
+     */
+    @SuppressWarnings("unchecked")
+    public static DocumentHandle.Role roleOf(Map<String, Object> sessionAttributes, int documentKey) {
+        Object roles = sessionAttributes != null ? sessionAttributes.get(ROLES_ATTRIBUTE) : null;
+        return roles != null ? ((Map<Integer, DocumentHandle.Role>) roles).get(documentKey) : null;
+    }
+}
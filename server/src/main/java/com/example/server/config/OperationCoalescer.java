@@ -0,0 +1,148 @@
+package com.example.server.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.DocumentExecutor;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+/**
+ * Gathers a document's outgoing operations into batches, so a burst of edits goes out as one
+ * frame per subscriber instead of one per operation. A batch is sent once the window after
+ * its first operation has passed or once it holds maxOperations, whichever comes first. In
+ * adaptive mode an operation that reaches a quiet document, with nothing sent for a whole
+ * window, goes out straight away: a lone keystroke pays no delay, only bursts are batched.
+ *
+ * Batches are only touched on their document's stripe; the timer hops back onto the stripe
+ * to flush, behind any operations already queued there. A document keeps its batch while
+ * operations are waiting or one was sent within the last window; after that the batch is
+ * dropped, so documents that were edited once do not stay in the map.
+ */
+public class OperationCoalescer implements AutoCloseable {
+    private final DocumentFanout fanout;
+    private final DocumentExecutor executor;
+    private final long windowNanos;
+    private final int maxOperations;
+    private final boolean adaptive;
+    private final ScheduledExecutorService timer;
+    private final Map<Integer, Batch> batches = new ConcurrentHashMap<>();
+
+    private static final class Batch {
+        final DocumentHandle document;
+        List<Operation> operations = new ArrayList<>();
+        boolean flushScheduled;
+        long lastFlush = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+
+        Batch(DocumentHandle document) {
+            this.document = document;
+        }
+    }
+
+    /**
+     * @param windowMillis How long a batch may wait for more operations; 0 sends every
+     *     operation on its own
+     */
+    public OperationCoalescer(DocumentFanout fanout, DocumentExecutor executor, long windowMillis, int maxOperations,
+            boolean adaptive) {
+        this.fanout = fanout;
+        this.executor = executor;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxOperations = Math.max(1, maxOperations);
+        this.adaptive = adaptive;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "operation-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue an operation for everyone in the document; see {@link #broadcast(DocumentHandle, List)}
+     */
+    public void broadcast(DocumentHandle document, Operation operation) {
+        broadcast(document, List.of(operation));
+    }
+
+    /**
+     * Queue operations for everyone in the document. Must run on the document's stripe, in
+     * the order the operations were applied. A list given together is never split across
+     * frames unless it alone exceeds maxOperations.
+     */
+    public void broadcast(DocumentHandle document, List<Operation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        if (windowNanos == 0) {
+            fanout.sendOperations(document, operations);
+            return;
+        }
+        Batch batch = batches.computeIfAbsent(document.getDocumentKey(), key -> new Batch(document));
+        long now = System.nanoTime();
+        if (adaptive && batch.operations.isEmpty() && now - batch.lastFlush >= windowNanos) {
+            // Quiet document: nothing to wait for
+            fanout.sendOperations(document, operations);
+            batch.lastFlush = now;
+        } else {
+            if (batch.operations.size() + operations.size() > maxOperations) {
+                flush(batch);
+            }
+            batch.operations.addAll(operations);
+            if (batch.operations.size() >= maxOperations) {
+                flush(batch);
+            }
+        }
+        schedule(batch);
+    }
+
+    /**
+     * Flush the batch once the window has passed; a batch found empty by then, with nothing
+     * sent for a whole window, is dropped
+     */
+    private void schedule(Batch batch) {
+        if (batch.flushScheduled) {
+            return;
+        }
+        batch.flushScheduled = true;
+        int documentKey = batch.document.getDocumentKey();
+        timer.schedule(() -> executor.execute(documentKey, () -> {
+            batch.flushScheduled = false;
+            if (!batch.operations.isEmpty()) {
+                flush(batch);
+                // Kept for one more window, so the next operation still counts as a burst
+                schedule(batch);
+            } else if (System.nanoTime() - batch.lastFlush < windowNanos) {
+                schedule(batch);
+            } else {
+                batches.remove(documentKey, batch);
+            }
+        }), windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void flush(Batch batch) {
+        if (batch.operations.isEmpty()) {
+            return;
+        }
+        List<Operation> operations = batch.operations;
+        batch.operations = new ArrayList<>();
+        fanout.sendOperations(batch.document, operations);
+        batch.lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Documents with a batch right now, waiting or in its last window
+     */
+    int activeDocuments() {
+        return batches.size();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.server.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import com.example.server.CRDTfiles.DocumentHandle;
+
+/**
+ * Who is in which document. STOMP sessions are tracked from connect to disconnect; a session
+ * joins a document when its client announces its user ID on /session/{code}/users. Members
+ * are kept per document, so listing them is O(members), and a document's entry is dropped
+ * once its last member leaves. Changes go out as joined/left deltas on the document's users
+ * topic.
+ */
+@Component
+public class SessionRegistry {
+    private static final Member UNBOUND = new Member(null, -1);
+
+    private final DocumentFanout fanout;
+    // Every connected session, with the document it joined (UNBOUND until it announces itself)
+    private final Map<String, Member> sessions = new ConcurrentHashMap<>();
+    // Document key -> user ID -> session ID of that user's connection
+    private final Map<Integer, Map<Integer, String>> members = new ConcurrentHashMap<>();
+
+    public SessionRegistry(DocumentFanout fanout) {
+        this.fanout = fanout;
+    }
+
+    private static final class Member {
+        final DocumentHandle document;
+        final int userId;
+
+        Member(DocumentHandle document, int userId) {
+            this.document = document;
+            this.userId = userId;
+        }
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        String sessionId = StompHeaderAccessor.wrap(event.getMessage()).getSessionId();
+        if (sessionId != null) {
+            sessions.putIfAbsent(sessionId, UNBOUND);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Member member = sessions.remove(event.getSessionId());
+        if (member != null && member.document != null) {
+            leave(event.getSessionId(), member);
+        }
+    }
+
+    /**
+     * Add the session's user to a document and tell the other members
+     * @return Everyone in the document now, the new member included
+     */
+    public List<Integer> join(String sessionId, DocumentHandle document, int userId) {
+        Member previous = sessions.put(sessionId, new Member(document, userId));
+        if (previous != null && previous.document != null
+                && (previous.document.getDocumentKey() != document.getDocumentKey() || previous.userId != userId)) {
+            leave(sessionId, previous);
+        }
+        boolean[] joined = new boolean[1];
+        members.compute(document.getDocumentKey(), (key, users) -> {
+            if (users == null) {
+                users = new ConcurrentHashMap<>();
+            }
+            joined[0] = users.put(userId, sessionId) == null;
+            return users;
+        });
+        if (joined[0]) {
+            fanout.sendMembers(document, Map.of("joined", List.of(userId)));
+        }
+        return getMembers(document.getDocumentKey());
+    }
+
+    public List<Integer> getMembers(int documentKey) {
+        Map<Integer, String> users = members.get(documentKey);
+        return users != null ? new ArrayList<>(users.keySet()) : List.of();
+    }
+
+    /**
+     * Number of documents with at least one member
+     */
+    public int activeDocumentCount() {
+        return members.size();
+    }
+
+    private void leave(String sessionId, Member member) {
+        boolean[] left = new boolean[1];
+        // Atomic per document, like the compute in join(), so a join cannot land in a map that
+        // is being dropped
+        members.computeIfPresent(member.document.getDocumentKey(), (key, users) -> {
+            // Only if the user has not reconnected on another session in the meantime
+            left[0] = users.remove(member.userId, sessionId);
+            return users.isEmpty() ? null : users;
+        });
+        if (left[0]) {
+            fanout.sendMembers(member.document, Map.of("left", List.of(member.userId)));
+        }
+    }
+}
@@ -8,18 +8,22 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import com.example.server.CRDTfiles.CRDT;
 import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentExecutor;
 
 @RestController
 public class WebRestController {
 
     private final CRDTManager crdtManager;
+    private final DocumentExecutor documentExecutor;
 
-    public WebRestController(CRDTManager crdtManager) {
+    public WebRestController(CRDTManager crdtManager, DocumentExecutor documentExecutor) {
         // Constructor
         this.crdtManager = crdtManager;
+        this.documentExecutor = documentExecutor;
     }
 
     @PostMapping("/createDocument")
@@ -31,13 +35,26 @@ public class WebRestController {
     }
 
     @GetMapping("/JoinDocument/{documentCode}")
-    public HashMap<String, String> joinDocument(@PathVariable String documentCode) {
-
-        HashMap<String, String> response = crdtManager.joinDocument(documentCode);
+    public HashMap<String, Object> joinDocument(@PathVariable String documentCode) {
+
+        int documentKey = crdtManager.getDocumentKey(documentCode);
+        if (documentKey == -1) {
+            return crdtManager.joinDocument(documentCode); // reports the unknown code
+        }
+        // Snapshot on the document's stripe so it never sees a half-applied operation
+        HashMap<String, Object> response = documentExecutor.submit(documentKey, () -> crdtManager.joinDocument(documentCode)).join();
         return response;
         
     }
 
+    /**
+     * Documents in memory and hibernation counters, for monitoring
+     */
+    @GetMapping("/stats/documents")
+    public Map<String, Object> documentStats() {
+        return crdtManager.getMemoryStats();
+    }
+
     @GetMapping("/test")
     public String testConnection() {
         System.out.println("Testing connection to the server...");
@@ -1,13 +1,27 @@
 package com.example.server.config;
 
+import com.example.server.CRDTfiles.CRDTManager;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer{
+    // Largest message accepted from a client, as the client accepts from us
+    public static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+
+    private final CRDTManager crdtManager;
+
+    public WebSocketConfig(CRDTManager crdtManager) {
+        this.crdtManager = crdtManager;
+    }
+
     // This class configures the WebSocket message broker for the application.
     // It enables STOMP (Simple Text Oriented Messaging Protocol) over WebSocket.
     /// NEED TO CONFIGURE ENDPOINTS AND MESSAGE BROKER
@@ -15,12 +29,39 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer{
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         // Set prefix for the endpoint that the client listens for our messages
-        registry.enableSimpleBroker("/topic");
+        // /queue carries replies to a single session, addressed through the default /user prefix
+        registry.enableSimpleBroker("/topic", "/queue");
         
         // Set prefix for endpoints the client will send messages to
         registry.setApplicationDestinationPrefixes("/app");
     }
     
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Subscriptions with either code of a document end up on the document's own topics
+        registration.interceptors(new DocumentSubscriptionInterceptor(crdtManager));
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // A sync reply is a few messages of thousands of operations, or a whole snapshot;
+        // let them queue up for a slow client instead of dropping its session
+        registration.setSendBufferSizeLimit(16 * 1024 * 1024);
+        registration.setSendTimeLimit(30_000);
+        // A paste goes out in slices of thousands of characters, well past STOMP's 64 KB default
+        registration.setMessageSizeLimit(MAX_MESSAGE_BYTES);
+    }
+
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        // The container's own default is 8 KB; a bigger frame closes the session (1009)
+        // before STOMP sees it, as whole messages are required
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(MAX_MESSAGE_BYTES);
+        container.setMaxBinaryMessageBufferSize(MAX_MESSAGE_BYTES);
+        return container;
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // Register the "/ws" endpoint, enabling the SockJS protocol
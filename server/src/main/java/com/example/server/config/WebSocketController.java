@@ -1,40 +1,158 @@
 package com.example.server.config;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.stereotype.Controller;
 
 import com.example.server.Operation;
+import com.example.server.SyncMessage;
+import com.example.server.CRDTfiles.CRDT;
+import com.example.server.CRDTfiles.CRDTSnapshot;
 import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentExecutor;
+import com.example.server.CRDTfiles.DocumentHandle;
+import com.example.server.CRDTfiles.OperationHistory;
+import com.example.server.storage.OperationLog;
 
 @Controller
 public class WebSocketController {
     private final SimpMessagingTemplate messagingTemplate;
     private final CRDTManager crdtManager;
-    Map<String, LinkedHashMap<Long, Operation>> operations = new HashMap<>(); // Map to store user sessions
+    // Operations on a document run one at a time on its stripe, in the order they arrived
+    private final DocumentExecutor documentExecutor;
+    private final SessionRegistry sessionRegistry;
+    private final OperationLog operationLog;
+    // One broadcast per document, for editors and viewers alike
+    private final DocumentFanout fanout;
+    // Batches operations over a short window before they go to the fan-out
+    private final OperationCoalescer coalescer;
+    // Merges cursor moves and sends them at a bounded rate
+    private final CursorThrottle cursorThrottle;
+    // Missed operations go out this many to a sync message, or fewer to stay under
+    // charactersPerSyncFrame characters of values
+    private final int operationsPerSyncFrame;
+    private final int charactersPerSyncFrame;
+    // A client further behind than this gets a snapshot rather than a replay
+    private final int maxReplayOperations;
 
     @Autowired
-    public WebSocketController(SimpMessagingTemplate messagingTemplate, CRDTManager crdtManager) {
+    public WebSocketController(SimpMessagingTemplate messagingTemplate, CRDTManager crdtManager, DocumentExecutor documentExecutor,
+            SessionRegistry sessionRegistry, OperationLog operationLog, DocumentFanout fanout, OperationCoalescer coalescer,
+            CursorThrottle cursorThrottle, @Value("${collab.sync.operations-per-frame}") int operationsPerSyncFrame,
+            @Value("${collab.sync.characters-per-frame}") int charactersPerSyncFrame,
+            @Value("${collab.sync.max-replay-operations}") int maxReplayOperations) {
         this.crdtManager = crdtManager;
         this.messagingTemplate = messagingTemplate;
+        this.documentExecutor = documentExecutor;
+        this.sessionRegistry = sessionRegistry;
+        this.operationLog = operationLog;
+        this.fanout = fanout;
+        this.coalescer = coalescer;
+        this.cursorThrottle = cursorThrottle;
+        this.operationsPerSyncFrame = operationsPerSyncFrame;
+        this.charactersPerSyncFrame = charactersPerSyncFrame;
+        this.maxReplayOperations = maxReplayOperations;
     }
 
     @MessageMapping("/document/{documentId}/operation")
-    public void handleOperation(@DestinationVariable String documentId, @Payload Operation operation) {
-        
-        LinkedHashMap<Long, Operation> operationMap = operations.computeIfAbsent(documentId, k -> new LinkedHashMap<>());
-        operationMap.put(operation.getTimestamp(), operation);
-        operations.put(documentId, operationMap);
+    public void handleOperation(@DestinationVariable String documentId, @Payload Operation operation,
+            @Header(name = "simpSessionAttributes", required = false) Map<String, Object> sessionAttributes) {
+        DocumentHandle document = crdtManager.getDocument(documentId);
+        if (document == null) {
+            System.out.println("Operation for unknown document " + documentId);
+            return;
+        }
+        if (!allowed(documentId, document, operation, sessionAttributes)) {
+            return;
+        }
+        // Apply and broadcast on the document's stripe, so every subscriber sees the same order
+        documentExecutor.execute(document.getDocumentKey(), () -> {
+            applyOperation(documentId, document, operation);
+            coalescer.broadcast(document, operation);
+        });
+    }
+
+    /**
+     * Operations a client made in a short burst, in order. They are applied in one go on the
+     * document's stripe, with nothing from other clients in between, and broadcast together.
+     * A batch is all or nothing: one edit from a viewer drops it.
+     */
+    @MessageMapping("/document/{documentId}/operations")
+    public void handleOperations(@DestinationVariable String documentId, @Payload Operation[] operations,
+            @Header(name = "simpSessionAttributes", required = false) Map<String, Object> sessionAttributes) {
+        DocumentHandle document = crdtManager.getDocument(documentId);
+        if (document == null) {
+            System.out.println("Operations for unknown document " + documentId);
+            return;
+        }
+        for (Operation operation : operations) {
+            if (!allowed(documentId, document, operation, sessionAttributes)) {
+                return;
+            }
+        }
+        List<Operation> batch = List.of(operations);
+        documentExecutor.execute(document.getDocumentKey(), () -> {
+            for (Operation operation : batch) {
+                applyOperation(documentId, document, operation);
+            }
+            coalescer.broadcast(document, batch);
+        });
+    }
 
-        String viewerCode = crdtManager.getViewerCode(documentId);
-        operations.put(viewerCode, operationMap); // If you want to support viewerCode as well
+    private boolean allowed(String documentId, DocumentHandle document, Operation operation, Map<String, Object> sessionAttributes) {
+        boolean edit = isEdit(operation);
+        if (edit && !document.canEdit()) {
+            System.out.println("Ignoring " + operation.getOp() + " sent with viewer code " + documentId);
+            return false;
+        }
+        // Checked before the operation is numbered and logged: one that cannot be applied
+        // would fail again on every replay
+        if (edit && !idsFit(operation)) {
+            System.out.println("Ignoring " + operation.getOp() + " with an out-of-range ID for " + documentId);
+            return false;
+        }
+        // The code's role, and also the role the session subscribed with
+        if (edit && DocumentSubscriptionInterceptor.roleOf(sessionAttributes, document.getDocumentKey()) == DocumentHandle.Role.VIEWER) {
+            System.out.println("Ignoring " + operation.getOp() + " from a session that joined " + documentId + " as a viewer");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Operations that change the text, and so are numbered, logged and need an editor
+     */
+    private static boolean isEdit(Operation operation) {
+        return operation.getOp().equals("insert") || operation.getOp().equals("delete")
+            || operation.getOp().equals("undelete");
+    }
+
+    private static boolean idsFit(Operation operation) {
+        return CRDT.CharacterId.fits(operation.getTimestamp(), operation.getID())
+            && CRDT.CharacterId.fits(operation.getTimestamp() + operation.runLength() - 1, operation.getID())
+            && (operation.getParentID() == -1 || CRDT.CharacterId.fits(operation.getParentTimestamp(), operation.getParentID()));
+    }
+
+    private void applyOperation(String documentId, DocumentHandle document, Operation operation) {
+        boolean edit = isEdit(operation);
+        if (edit) {
+            // Numbered and kept in the document's history, which reads a stored document in
+            // first, so its recovery does not replay this operation too
+            crdtManager.record(document, operation);
+            // Logged with its number, before it is applied or broadcast; the flush to disk happens in the background
+            operationLog.append(document.getDocumentKey(), operation);
+        }
 
         if (operation.getOp().equals("insert")) {
             // Handle insert operation
@@ -44,55 +162,94 @@ public class WebSocketController {
             // Handle delete operation
             crdtManager.deleteRemote(documentId, operation); // Apply the operation to the CRDT manager
             System.out.println("Delete operation: " + operation.getValue() + " ID = " + operation.getID());
+        } else if (operation.getOp().equals("undelete")) {
+            // An undo of a delete, applied in server order like the delete it reverses
+            crdtManager.undeleteRemote(documentId, operation);
+            System.out.println("Undelete operation: " + operation.getValue() + " ID = " + operation.getID());
         }
-
-        messagingTemplate.convertAndSend("/topic/document/" + documentId + "/operation", operation);
-        messagingTemplate.convertAndSend("/topic/document/" + viewerCode + "/operation", operation);
-
     }
 
+    /**
+     * A client catching up from the last sequence number it has seen, 0 if none. The reply
+     * goes to the asking session alone: the operations after that number, or a snapshot if
+     * they are no longer all kept or there are more than maxReplayOperations of them.
+     */
     @MessageMapping("/document/{documentId}/sync")
-    public void handleSync(@DestinationVariable String documentId, @Payload String userId) {
-        System.out.println("Received sync request for document " + documentId);
-
-        LinkedHashMap<Long, Operation> operationMap = operations.get(documentId); // Retrieve the operations for the session
+    public void handleSync(@DestinationVariable String documentId, @Payload String lastSequence,
+            @Header("simpSessionId") String sessionId) {
+        DocumentHandle document = crdtManager.getDocument(documentId);
+        if (document == null) {
+            System.out.println("Sync request for unknown document " + documentId);
+            return;
+        }
+        long since;
+        try {
+            since = Long.parseLong(lastSequence.trim());
+        } catch (NumberFormatException e) {
+            since = 0; // Clients that do not track sequence numbers get everything
+        }
+        long from = since;
+        // Queued behind pending operations, so the reply is a consistent prefix
+        documentExecutor.execute(document.getDocumentKey(), () -> sendSync(documentId, document, from, sessionId));
+    }
 
-        if (operationMap != null) {
-            // Send the operations to the client
-            for (Operation op : operationMap.values()) {
-                messagingTemplate.convertAndSend("/topic/document/" + documentId + "/sync", op);
-                System.out.println("Operation sync: " + op.getOp() + " from user: " + op.getID() + " with timestamp: " + op.getTimestamp());
-            }
-            System.out.println("Sent sync response for document " + documentId + ": " + operationMap);
+    private void sendSync(String documentId, DocumentHandle document, long since, String sessionId) {
+        OperationHistory history = document.getHistory();
+        // null when some of the missed operations are gone; a sequence past the end means
+        // the client saw a different history, e.g. from before a restart of a server
+        // without storage. Past the threshold one snapshot is smaller and cheaper to apply
+        // than the edits that built it, most of which rewrite text typed moments before.
+        long behind = history.lastSequence() - since;
+        List<Operation> missed = behind >= 0 && behind <= maxReplayOperations ? history.since(since) : null;
+        List<SyncMessage> replies;
+        if (missed != null) {
+            replies = SyncMessage.frames(missed, history.lastSequence(), operationsPerSyncFrame,
+                charactersPerSyncFrame);
+            System.out.println("Sync for document " + documentId + " from " + since + ": " + missed.size() + " operations in "
+                + replies.size() + " messages");
         } else {
-            System.out.println("No operations found for document " + documentId);
+            String snapshot = Base64.getEncoder().encodeToString(CRDTSnapshot.write(document.getCrdt()));
+            replies = List.of(new SyncMessage(history.lastSequence(), snapshot, List.of(), true));
+            System.out.println("Sync for document " + documentId + " from " + since + ": snapshot at " + history.lastSequence());
+        }
+
+        // Addressed by session ID, as clients connect without a user name
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        for (SyncMessage reply : replies) {
+            messagingTemplate.convertAndSendToUser(sessionId, "/queue/document/sync", reply, headers.getMessageHeaders());
         }
     }
 
+    /**
+     * A client announcing itself in a document. The other members get a "joined" delta on the
+     * users topics; the newcomer alone gets the full member list on its user queue.
+     */
     @MessageMapping("/session/{sessionCode}/users")
-    public void handleActiveUsers(@DestinationVariable String sessionCode, @Payload String userId) {
-        // Broadcast the active users to all subscribers of the session topic
-        String viewerCode = crdtManager.getViewerCode(sessionCode);
-
+    @SendToUser(destinations = "/queue/session/users", broadcast = false)
+    public Map<String, List<Integer>> handleActiveUsers(@DestinationVariable String sessionCode, @Payload String userId,
+            @Header("simpSessionId") String sessionId) {
+        DocumentHandle document = crdtManager.getDocument(sessionCode);
+        if (document == null) {
+            System.out.println("User ID: " + userId + " tried to join unknown session: " + sessionCode);
+            return null;
+        }
         System.out.println("User ID: " + userId + " joined session: " + sessionCode);
 
-        List<Integer> userIds = crdtManager.getUserIds(sessionCode);
+        List<Integer> userIds = sessionRegistry.join(sessionId, document, Integer.parseInt(userId.trim()));
         System.out.println("Active users in session " + sessionCode + ": " + userIds);
-
-        messagingTemplate.convertAndSend("/topic/session/" + viewerCode + "/users", userIds);
-        messagingTemplate.convertAndSend("/topic/session/" + sessionCode + "/users", userIds);
+        return Map.of("members", userIds);
     }
 
     @MessageMapping("/session/{sessionCode}/cursor")
     public void handleCursorPosition(@DestinationVariable String sessionCode, @Payload Map<String, String> cursorPositions) {
-        System.out.println("Received cursor positions for session " + sessionCode + ": " + cursorPositions);
-
-        String viewerCode = crdtManager.getViewerCode(sessionCode);
-
-        messagingTemplate.convertAndSend("/topic/session/" + sessionCode + "/cursor", cursorPositions);
-        messagingTemplate.convertAndSend("/topic/session/" + viewerCode + "/cursor", cursorPositions);
-
-        System.out.println("Broadcasted cursor positions to session " + sessionCode);
+        DocumentHandle document = crdtManager.getDocument(sessionCode);
+        if (document == null) {
+            return;
+        }
+        // Not logged: carets move on every keystroke
+        cursorThrottle.update(document, cursorPositions);
     }
     
 }
@@ -0,0 +1,225 @@
+package com.example.server.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.CRDT;
+import com.example.server.CRDTfiles.CRDTSnapshot;
+import com.example.server.CRDTfiles.OperationHistory;
+
+/**
+ * Everything the server keeps on disk about its documents, next to the operation log:
+ * <ul>
+ *   <li>documents.idx, an append-only list of document codes and of how far user IDs have
+ *       been handed out, small enough to read in full at startup;</li>
+ *   <li>one snapshot per document, which also records the first log segment it does not
+ *       cover and the sequence number of the last operation it includes, so recovery is the
+ *       snapshot plus the log from that segment on.</li>
+ * </ul>
+ */
+public class DocumentStore implements AutoCloseable {
+    private static final String INDEX_FILE = "documents.idx";
+
+    /**
+     * A document as registered in the index
+     */
+    public static final class Entry {
+        private final int documentKey;
+        private final String editorCode;
+        private final String viewerCode;
+
+        Entry(int documentKey, String editorCode, String viewerCode) {
+            this.documentKey = documentKey;
+            this.editorCode = editorCode;
+            this.viewerCode = viewerCode;
+        }
+
+        public int getDocumentKey() {
+            return documentKey;
+        }
+
+        public String getEditorCode() {
+            return editorCode;
+        }
+
+        public String getViewerCode() {
+            return viewerCode;
+        }
+    }
+
+    private final Path directory;
+    private final OperationLog log;
+    private final FileChannel index;
+    private final List<Entry> documents = new ArrayList<>();
+    private int userIdLimit;
+
+    public DocumentStore(Path directory, OperationLog log) {
+        this.directory = directory;
+        this.log = log;
+        try {
+            Files.createDirectories(directory.resolve("snapshots"));
+            Path indexPath = directory.resolve(INDEX_FILE);
+            index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            byte[] content = Files.readAllBytes(indexPath);
+            // A line without its newline was cut short by a crash and never acknowledged:
+            // drop it, so the next line is not glued onto it
+            int complete = content.length;
+            while (complete > 0 && content[complete - 1] != '\n') {
+                complete--;
+            }
+            readIndex(new String(content, 0, complete, StandardCharsets.UTF_8));
+            index.truncate(complete);
+            index.position(complete);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open document store " + directory, e);
+        }
+    }
+
+    /**
+     * Documents registered so far, in creation order
+     */
+    public synchronized List<Entry> documents() {
+        return Collections.unmodifiableList(new ArrayList<>(documents));
+    }
+
+    /**
+     * User IDs below this may have been handed out before a restart and must not be reused
+     */
+    public synchronized int userIdLimit() {
+        return userIdLimit;
+    }
+
+    /**
+     * Record a new document's codes; durable once this returns
+     */
+    public synchronized void registerDocument(int documentKey, String editorCode, String viewerCode) {
+        appendIndex("D " + documentKey + " " + editorCode + " " + viewerCode);
+        documents.add(new Entry(documentKey, editorCode, viewerCode));
+    }
+
+    /**
+     * Record that user IDs up to (not including) limit may be handed out. Callers reserve a
+     * block at a time, so this costs a disk flush every so many joins rather than every one.
+     */
+    public synchronized void reserveUserIds(int limit) {
+        if (limit > userIdLimit) {
+            appendIndex("U " + limit);
+            userIdLimit = limit;
+        }
+    }
+
+    /**
+     * Read a document back: its newest snapshot, or an empty CRDT if it has none, with every
+     * logged operation after the snapshot handed to tail to apply to it. The history is
+     * emptied and numbered on from the snapshot, and gets the logged operations as well.
+     */
+    public CRDT load(int documentKey, OperationHistory history, BiConsumer<CRDT, Operation> tail) {
+        Path path = snapshotPath(documentKey);
+        CRDT crdt;
+        int tailSegment = 0;
+        long sequence = 0;
+        if (Files.exists(path)) {
+            ByteBuffer snapshot;
+            try {
+                snapshot = ByteBuffer.wrap(Files.readAllBytes(path));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read snapshot " + path, e);
+            }
+            tailSegment = snapshot.getInt();
+            sequence = snapshot.getLong();
+            byte[] image = new byte[snapshot.remaining()];
+            snapshot.get(image);
+            crdt = CRDTSnapshot.read(image);
+        } else {
+            crdt = new CRDT();
+        }
+        history.reset(sequence);
+        log.replay(documentKey, tailSegment, op -> {
+            tail.accept(crdt, op);
+            // Operations logged without a sequence number cannot be listed to clients
+            if (op.getSequence() > history.lastSequence()) {
+                history.restore(op);
+            }
+        });
+        return crdt;
+    }
+
+    /**
+     * Replace a document's log with a snapshot of its current state. Must run on the
+     * document's stripe, so no operation is logged or applied halfway through. Each step
+     * leaves a recoverable state behind: the old snapshot stays valid until the new one is
+     * renamed into place, and the log is only cut once the new one is on disk.
+     * @param sequence Sequence number of the last operation applied to the CRDT
+     */
+    public void compact(int documentKey, CRDT crdt, long sequence) {
+        int tailSegment = log.rollover(documentKey);
+        byte[] image = CRDTSnapshot.write(crdt);
+        Path path = snapshotPath(documentKey);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(4 + 8).putInt(0, tailSegment).putLong(4, sequence);
+            ByteBuffer body = ByteBuffer.wrap(image);
+            while (header.hasRemaining() || body.hasRemaining()) {
+                channel.write(new ByteBuffer[] { header, body });
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write snapshot " + temporary, e);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot install snapshot " + path, e);
+        }
+        log.truncateBefore(documentKey, tailSegment);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            index.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path snapshotPath(int documentKey) {
+        return directory.resolve("snapshots").resolve(documentKey + ".snap");
+    }
+
+    private void readIndex(String content) {
+        for (String line : content.split("\n")) {
+            String[] fields = line.trim().split(" ");
+            if (fields[0].equals("D") && fields.length == 4) {
+                documents.add(new Entry(Integer.parseInt(fields[1]), fields[2], fields[3]));
+            } else if (fields[0].equals("U") && fields.length == 2) {
+                userIdLimit = Math.max(userIdLimit, Integer.parseInt(fields[1]));
+            }
+        }
+    }
+
+    private void appendIndex(String line) {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (bytes.hasRemaining()) {
+                index.write(bytes);
+            }
+            index.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot update " + directory.resolve(INDEX_FILE), e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.server.storage;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import com.example.server.CRDTfiles.DocumentExecutor;
+
+/**
+ * Background check for documents whose log tail has grown past a threshold. Each one gets
+ * a compaction queued on its own stripe, behind the operations already waiting there, so
+ * a snapshot never races an edit; the scan itself only reads counters.
+ */
+public class LogCompactor implements AutoCloseable {
+    private final OperationLog log;
+    private final DocumentExecutor executor;
+    private final IntConsumer compaction;
+    private final long thresholdBytes;
+    private final ScheduledExecutorService scheduler;
+    // Documents with a compaction queued, so a slow one is not queued again
+    private final Set<Integer> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param compaction Snapshots a document and truncates its log; runs on the document's stripe
+     */
+    public LogCompactor(OperationLog log, DocumentExecutor executor, IntConsumer compaction, long thresholdBytes,
+            long intervalMillis) {
+        this.log = log;
+        this.executor = executor;
+        this.compaction = compaction;
+        this.thresholdBytes = thresholdBytes;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::scheduledScan, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a compaction for every document over the threshold
+     * @return How many were queued
+     */
+    public int scan() {
+        int count = 0;
+        for (int documentKey : log.openDocuments()) {
+            if (log.pendingBytes(documentKey) >= thresholdBytes && queued.add(documentKey)) {
+                executor.execute(documentKey, () -> {
+                    try {
+                        compaction.accept(documentKey);
+                    } finally {
+                        queued.remove(documentKey);
+                    }
+                });
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void scheduledScan() {
+        try {
+            scan();
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule; the next pass tries again
+            System.err.println("Log compaction scan failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
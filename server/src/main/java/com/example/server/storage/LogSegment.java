@@ -0,0 +1,183 @@
+package com.example.server.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * One memory-mapped, preallocated file of a document's operation log. Records are appended
+ * back to back as [payload length][CRC32C of payload][payload]; the zeroed tail of the file
+ * reads as a zero length, which marks the end. A record torn by a crash fails its checksum
+ * and ends the log there as well.
+ *
+ * A mapping is only released by {@link #unmap}, or else by the garbage collector whenever it
+ * gets to it; after unmap() the segment must not be touched again.
+ */
+final class LogSegment {
+    static final int HEADER_BYTES = 8;
+
+    // sun.misc.Unsafe.invokeCleaner, the only way to release a mapping on demand before
+    // Java 22's Arena; null where it is not available, leaving mappings to the GC
+    private static final MethodHandle INVOKE_CLEANER = findCleaner();
+
+    private final Path path;
+    // Mapped for appending; a plain heap copy for reading
+    private final ByteBuffer buffer;
+
+    private LogSegment(Path path, ByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map a segment for appending, creating and preallocating the file if needed. An existing
+     * file is scanned so that appends continue behind its last intact record.
+     */
+    static LogSegment open(Path path, int capacity) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = Math.max(channel.size(), capacity);
+            // The mapping stays valid after the channel closes, so no descriptor is held per document
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            LogSegment segment = new LogSegment(path, buffer);
+            int end = segment.scan(null);
+            if (end + HEADER_BYTES <= size && buffer.getInt(end) != 0) {
+                // A torn record with intact ones behind it: wipe them, or new appends would
+                // land in front of records that were never acknowledged as being in order
+                for (int i = end; i < size; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+            }
+            buffer.position(end);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open log segment " + path, e);
+        }
+    }
+
+    /**
+     * Read an existing segment into memory. Nothing is mapped: replaying thousands of
+     * documents at startup must not leave thousands of mappings behind for the GC.
+     */
+    static LogSegment openReadOnly(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Read until full
+            }
+            return new LogSegment(path, buffer.clear());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read log segment " + path, e);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Bytes taken up by records so far
+     */
+    int used() {
+        return buffer.position();
+    }
+
+    int remaining() {
+        return buffer.remaining() - HEADER_BYTES;
+    }
+
+    /**
+     * Reserve room for a payload of the given size and return a view to write it into.
+     * The record only becomes visible to readers once {@link #commit} stamps its header.
+     */
+    ByteBuffer reserve(int payloadBytes) {
+        return buffer.slice(buffer.position() + HEADER_BYTES, payloadBytes);
+    }
+
+    void commit(ByteBuffer payload) {
+        int start = buffer.position();
+        int length = payload.capacity();
+        CRC32C crc = new CRC32C();
+        crc.update(payload.clear());
+        // The length goes in last: until it is there the record reads as the end of the log
+        buffer.putInt(start + 4, (int) crc.getValue());
+        buffer.putInt(start, length);
+        buffer.position(start + HEADER_BYTES + length);
+    }
+
+    /**
+     * Flush written pages to the storage device
+     */
+    void force() {
+        ((MappedByteBuffer) buffer).force();
+    }
+
+    /**
+     * Release the mapping now. The caller must make sure no other thread still uses it.
+     * @return Whether it was released; if not, the GC releases it later
+     */
+    boolean unmap() {
+        if (INVOKE_CLEANER == null || !(buffer instanceof MappedByteBuffer)) {
+            return false;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle findCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Walk the intact records from the start of the segment
+     * @param visitor Gets a read-only view of each payload, or null to only find the end
+     * @return Offset just behind the last intact record
+     */
+    int scan(RecordVisitor visitor) {
+        int offset = 0;
+        int limit = buffer.capacity();
+        while (offset + HEADER_BYTES <= limit) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > limit - offset - HEADER_BYTES) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(offset + HEADER_BYTES, length);
+            CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            if (visitor != null) {
+                visitor.visit(payload.asReadOnlyBuffer());
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    interface RecordVisitor {
+        void visit(ByteBuffer payload);
+    }
+}
@@ -0,0 +1,478 @@
+package com.example.server.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.example.server.Operation;
+
+/**
+ * Durable, append-only log of the edits applied to each document. Every document gets its
+ * own directory of memory-mapped segment files; an append is a copy into mapped memory and
+ * never waits for the disk. A single background thread does group commit instead: every
+ * few milliseconds it flushes all segments written since its last pass, so one round of
+ * fsyncs covers every document that changed in the meantime.
+ *
+ * Appends for one document must come from one thread at a time, which the document's
+ * executor stripe already guarantees.
+ *
+ * A document's log is only open, with its current segment mapped, while it is written to:
+ * the sync thread closes logs that have been idle for a while, and the next append opens
+ * the log again behind its last record. Segments that are full or closed are flushed and
+ * unmapped by the sync thread too, so mappings never pile up waiting for the GC.
+ */
+public class OperationLog implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_BYTES = 1 << 20;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 5;
+    public static final long DEFAULT_IDLE_CLOSE_MILLIS = 60_000;
+
+    private static final byte INSERT = 0;
+    private static final byte DELETE = 1;
+    private static final byte UNDELETE = 2;
+    // kind, sequence, ID, timestamp, parent ID, parent timestamp, value length
+    private static final int FIXED_PAYLOAD_BYTES = 1 + 8 + 4 + 8 + 4 + 8 + 4;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long syncIntervalNanos;
+    private final long idleCloseNanos;
+    // Open logs only; see the class comment
+    private final Map<Integer, DocumentLog> logs = new ConcurrentHashMap<>();
+    // Documents with appends that have not been flushed yet
+    private final ConcurrentLinkedQueue<DocumentLog> dirty = new ConcurrentLinkedQueue<>();
+    // Segments no longer appended to, still to be flushed and unmapped by sync()
+    private final ConcurrentLinkedQueue<LogSegment> retired = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mappedSegments = new AtomicInteger();
+    private long lastIdleScan = System.nanoTime();
+    private final AtomicLong syncRounds = new AtomicLong();
+    private final Thread syncThread;
+    private volatile boolean running = true;
+
+    public OperationLog(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    public OperationLog(Path directory, int segmentBytes, long syncIntervalMillis) {
+        this(directory, segmentBytes, syncIntervalMillis, DEFAULT_IDLE_CLOSE_MILLIS);
+    }
+
+    /**
+     * @param idleCloseMillis How long a document's log stays open without appends
+     */
+    public OperationLog(Path directory, int segmentBytes, long syncIntervalMillis, long idleCloseMillis) {
+        if (segmentBytes <= LogSegment.HEADER_BYTES + FIXED_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("Segments of " + segmentBytes + " bytes cannot hold a record");
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create operation log directory " + directory, e);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.idleCloseNanos = TimeUnit.MILLISECONDS.toNanos(idleCloseMillis);
+        this.syncThread = new Thread(this::syncLoop, "operation-log-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Append an insert, delete or undelete to its document's log. Returns once the record is in mapped
+     * memory, where it survives a crash of the server process; the sync thread makes it
+     * survive a power loss shortly after. Other operations are ignored.
+     */
+    public void append(int documentKey, Operation operation) {
+        byte kind;
+        if ("insert".equals(operation.getOp())) {
+            kind = INSERT;
+        } else if ("delete".equals(operation.getOp())) {
+            kind = DELETE;
+        } else if ("undelete".equals(operation.getOp())) {
+            kind = UNDELETE;
+        } else {
+            return;
+        }
+        byte[] value = operation.getValue() == null ? new byte[0] : operation.getValue().getBytes(StandardCharsets.UTF_8);
+        int payloadBytes = FIXED_PAYLOAD_BYTES + value.length;
+
+        DocumentLog log = lock(documentKey);
+        try {
+            ByteBuffer payload = log.reserve(payloadBytes);
+            payload.put(kind)
+                .putLong(operation.getSequence())
+                .putInt(operation.getID())
+                .putLong(operation.getTimestamp())
+                .putInt(operation.getParentID())
+                .putLong(operation.getParentTimestamp())
+                .putInt(value.length)
+                .put(value);
+            log.segment.commit(payload);
+            log.lastAppend = System.nanoTime();
+        } finally {
+            log.lock.unlock();
+        }
+
+        if (log.dirty.compareAndSet(false, true)) {
+            dirty.add(log);
+        }
+    }
+
+    /**
+     * The document's open log, opened if need be, with its lock held so the sync thread
+     * cannot close it underneath the caller
+     */
+    private DocumentLog lock(int documentKey) {
+        while (true) {
+            DocumentLog log = logs.computeIfAbsent(documentKey, this::openLog);
+            log.lock.lock();
+            if (!log.closed) {
+                return log;
+            }
+            // Closed for being idle after we looked it up; the next round opens it again
+            log.lock.unlock();
+        }
+    }
+
+    /**
+     * Feed every intact operation logged for a document to the consumer, oldest first
+     */
+    public void replay(int documentKey, Consumer<Operation> consumer) {
+        replay(documentKey, 0, consumer);
+    }
+
+    /**
+     * Feed the operations logged from the given segment on, e.g. the tail behind a snapshot
+     */
+    public void replay(int documentKey, int fromSegment, Consumer<Operation> consumer) {
+        for (Path path : segmentPaths(documentKey)) {
+            if (segmentIndex(path) >= fromSegment) {
+                LogSegment.openReadOnly(path).scan(payload -> consumer.accept(decode(payload)));
+            }
+        }
+    }
+
+    /**
+     * Close the document's log and start a new, empty segment for whatever comes next.
+     * Everything logged so far is flushed before this returns. Nothing is mapped: a document
+     * compacted as it is hibernated may never be written to again, and the next append opens
+     * the new segment like any closed log. Must run on the document's stripe, like append.
+     * @return Index of the new segment; segments before it hold everything logged until now
+     */
+    public int rollover(int documentKey) {
+        DocumentLog log = logs.get(documentKey);
+        if (log != null) {
+            log.lock.lock();
+            try {
+                if (!log.closed) {
+                    log.segment.force();
+                    closeLocked(log);
+                    // Unmapped by the sync thread, which may be flushing it right now
+                    retired.add(log.segment);
+                }
+            } finally {
+                log.lock.unlock();
+            }
+        }
+        List<Path> segments = segmentPaths(documentKey);
+        int next = segments.isEmpty() ? 0 : segmentIndex(segments.get(segments.size() - 1)) + 1;
+        // An empty file, so a reopened log starts here and not in a segment the snapshot covers
+        Path path = directory.resolve(Integer.toString(documentKey)).resolve(segmentName(next));
+        try {
+            Files.createDirectories(path.getParent());
+            Files.createFile(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create log segment " + path, e);
+        }
+        return next;
+    }
+
+    /**
+     * Delete the document's segments before the given one, once a snapshot covers them
+     */
+    public void truncateBefore(int documentKey, int segment) {
+        for (Path path : segmentPaths(documentKey)) {
+            if (segmentIndex(path) < segment) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot delete " + path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Documents whose log is open for appending
+     */
+    public Set<Integer> openDocuments() {
+        return Collections.unmodifiableSet(logs.keySet());
+    }
+
+    /**
+     * Roughly how many bytes were logged for a document since its last rollover, counting
+     * older segments still on disk as full; 0 if its log is not open
+     */
+    public long pendingBytes(int documentKey) {
+        DocumentLog log = logs.get(documentKey);
+        return log != null ? log.pendingBytes() : 0;
+    }
+
+    /**
+     * Keys of all documents that have a log on disk
+     */
+    public List<Integer> documentKeys() {
+        List<Integer> keys = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(directory)) {
+            entries.filter(Files::isDirectory).forEach(path -> {
+                try {
+                    keys.add(Integer.parseInt(path.getFileName().toString()));
+                } catch (NumberFormatException e) {
+                    // Not a document directory
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list " + directory, e);
+        }
+        return keys;
+    }
+
+    /**
+     * Flush every pending append now instead of waiting for the next group commit, and
+     * release the segments that are no longer written to. Synchronized: segments are only
+     * unmapped here, so no other flush can still be using one.
+     */
+    public synchronized void sync() {
+        DocumentLog log;
+        while ((log = dirty.poll()) != null) {
+            // Cleared first, so an append racing this flush queues the log again
+            log.dirty.set(false);
+            if (!log.closed) {
+                // A segment replaced meanwhile is in retired, and flushed below
+                log.segment.force();
+            }
+        }
+        LogSegment segment;
+        while ((segment = retired.poll()) != null) {
+            segment.force();
+            release(segment);
+        }
+        syncRounds.incrementAndGet();
+    }
+
+    /**
+     * Close the logs that have not been appended to for the idle time. A log in the middle
+     * of an append is skipped, and closed on a later pass.
+     * @return How many were closed
+     */
+    public synchronized int closeIdle() {
+        long now = System.nanoTime();
+        lastIdleScan = now;
+        int count = 0;
+        for (DocumentLog log : logs.values()) {
+            if (now - log.lastAppend >= idleCloseNanos && log.lock.tryLock()) {
+                try {
+                    if (!log.closed && now - log.lastAppend >= idleCloseNanos) {
+                        closeLocked(log);
+                        log.segment.force();
+                        release(log.segment);
+                        count++;
+                    }
+                } finally {
+                    log.lock.unlock();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Segments mapped right now, across all documents
+     */
+    public int mappedSegments() {
+        return mappedSegments.get();
+    }
+
+    /**
+     * Number of group commits so far; each one flushes any number of documents
+     */
+    public long syncRounds() {
+        return syncRounds.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(syncThread);
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        synchronized (this) {
+            for (DocumentLog log : logs.values()) {
+                closeLocked(log);
+                log.segment.force();
+                release(log.segment);
+            }
+        }
+    }
+
+    private void syncLoop() {
+        while (running) {
+            LockSupport.parkNanos(syncIntervalNanos);
+            try {
+                if (!dirty.isEmpty() || !retired.isEmpty()) {
+                    sync();
+                }
+                // Every so often rather than every round: it looks at every open log
+                if (System.nanoTime() - lastIdleScan >= Math.min(idleCloseNanos / 4 + 1, TimeUnit.SECONDS.toNanos(1))) {
+                    closeIdle();
+                }
+            } catch (RuntimeException e) {
+                // The next round retries; appends keep going into mapped memory meanwhile
+                System.err.println("Operation log sync failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Take a log out of use; its lock must be held, or appends otherwise ruled out
+     */
+    private void closeLocked(DocumentLog log) {
+        log.closed = true;
+        logs.remove(log.documentKey, log);
+    }
+
+    private void release(LogSegment segment) {
+        segment.unmap();
+        mappedSegments.decrementAndGet();
+    }
+
+    private DocumentLog openLog(int documentKey) {
+        Path documentDirectory = directory.resolve(Integer.toString(documentKey));
+        try {
+            Files.createDirectories(documentDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create " + documentDirectory, e);
+        }
+        List<Path> segments = segmentPaths(documentKey);
+        int index = segments.isEmpty() ? 0 : segmentIndex(segments.get(segments.size() - 1));
+        DocumentLog log = new DocumentLog(documentKey, documentDirectory, index);
+        log.olderBytes = (long) Math.max(segments.size() - 1, 0) * segmentBytes;
+        return log;
+    }
+
+    private List<Path> segmentPaths(int documentKey) {
+        Path documentDirectory = directory.resolve(Integer.toString(documentKey));
+        if (!Files.isDirectory(documentDirectory)) {
+            return List.of();
+        }
+        try (Stream<Path> entries = Files.list(documentDirectory)) {
+            // Zero-padded names, so name order is append order
+            return entries.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list " + documentDirectory, e);
+        }
+    }
+
+    private static String segmentName(int index) {
+        return String.format("%010d.log", index);
+    }
+
+    private static int segmentIndex(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - ".log".length()));
+    }
+
+    private static Operation decode(ByteBuffer payload) {
+        byte kind = payload.get();
+        String op = kind == INSERT ? "insert" : kind == DELETE ? "delete" : "undelete";
+        long sequence = payload.getLong();
+        int id = payload.getInt();
+        long timestamp = payload.getLong();
+        int parentId = payload.getInt();
+        long parentTimestamp = payload.getLong();
+        byte[] value = new byte[payload.getInt()];
+        payload.get(value);
+        Operation operation = new Operation(op, id, timestamp, new String(value, StandardCharsets.UTF_8), parentId,
+                parentTimestamp);
+        operation.setSequence(sequence);
+        return operation;
+    }
+
+    /**
+     * The open end of one document's log
+     */
+    private final class DocumentLog {
+        final int documentKey;
+        final Path directory;
+        final AtomicBoolean dirty = new AtomicBoolean();
+        // Held while appending; the sync thread takes it to close an idle log
+        final ReentrantLock lock = new ReentrantLock();
+        // Set once, with the lock held; a closed log is never written to again
+        volatile boolean closed;
+        volatile long lastAppend = System.nanoTime();
+        int index;
+        // Read by the sync thread; only the current segment can have unflushed appends
+        volatile LogSegment segment;
+        // Bytes in the segments before the current one that are still part of the tail;
+        // volatile as the compactor reads it from its own thread
+        volatile long olderBytes;
+
+        DocumentLog(int documentKey, Path directory, int index) {
+            this.documentKey = documentKey;
+            this.directory = directory;
+            this.index = index;
+            this.segment = LogSegment.open(segmentPath(index), segmentBytes);
+            mappedSegments.incrementAndGet();
+        }
+
+        ByteBuffer reserve(int payloadBytes) {
+            if (segment.remaining() < payloadBytes) {
+                olderBytes += segment.used();
+                startSegment(payloadBytes);
+            }
+            return segment.reserve(payloadBytes);
+        }
+
+        /**
+         * Flush the current segment and switch to the next one; later group commits only
+         * look at the new one, and the old one is unmapped by the next
+         */
+        void startSegment(int payloadBytes) {
+            segment.force();
+            retired.add(segment);
+            index++;
+            segment = LogSegment.open(segmentPath(index), Math.max(segmentBytes, LogSegment.HEADER_BYTES + payloadBytes));
+            mappedSegments.incrementAndGet();
+        }
+
+        long pendingBytes() {
+            return olderBytes + segment.used();
+        }
+
+        private Path segmentPath(int index) {
+            return directory.resolve(segmentName(index));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class CRDTInsertBenchmarkTests {
+
+    private static final int BATCH_SIZE = 50_000;
+    private static final int BATCHES = 4;
+    private static final int USERS = 3;
+
+    @Test
+    void typingFromSeveralUsersKeepsEveryCharacter() {
+        CRDT crdt = new CRDT();
+        insertBatch(crdt, 0, BATCH_SIZE * BATCHES);
+
+        assertEquals(BATCH_SIZE * BATCHES + 1, crdt.nodeMap.size());
+        assertEquals(BATCH_SIZE * BATCHES, crdt.getVisibleString().length());
+    }
+
+    @Test
+    void megabytePasteExtendsTheRunItFollows() {
+        CRDTManager manager = new CRDTManager(0);
+        String editorCode = (String) manager.CreateDocument().get("editorCode");
+        String paste = paste(manager, editorCode);
+
+        assertEquals("Title\n" + paste, manager.getDocumentText(editorCode));
+        // One character at a time this took minutes; as a run it simply extends the title's node
+        assertEquals(2, manager.getCRDT(editorCode).nodeMap.size());
+    }
+
+    @Tag("benchmark")
+    @Test
+    void insertThroughputStaysFlatAsDocumentGrows() {
+        // Warm up so the first measured batch is not dominated by the JIT
+        insertBatch(new CRDT(), 0, BATCH_SIZE);
+
+        CRDT crdt = new CRDT();
+        double[] opsPerSecond = new double[BATCHES];
+        for (int batch = 0; batch < BATCHES; batch++) {
+            long start = System.nanoTime();
+            insertBatch(crdt, (long) batch * BATCH_SIZE, BATCH_SIZE);
+            long elapsed = System.nanoTime() - start;
+            opsPerSecond[batch] = BATCH_SIZE / (elapsed / 1_000_000_000.0);
+        }
+
+        // A linear parent scan would make the last batch several times slower than the first
+        assertTrue(opsPerSecond[BATCHES - 1] > opsPerSecond[0] / 4,
+            "Insert throughput degraded from " + opsPerSecond[0] + " to " + opsPerSecond[BATCHES - 1]);
+    }
+
+    @Tag("benchmark")
+    @Test
+    void megabytePasteAppliesInMilliseconds() {
+        CRDTManager manager = new CRDTManager(0);
+        String editorCode = (String) manager.CreateDocument().get("editorCode");
+        long start = System.nanoTime();
+        paste(manager, editorCode);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1_000, "Paste took " + elapsedMillis + " ms");
+    }
+
+    private static void insertBatch(CRDT crdt, long firstTimestamp, int count) {
+        for (int i = 0; i < count; i++) {
+            crdt.insert(new CRDT.CharacterId(firstTimestamp + i, i % USERS), 'a');
+        }
+    }
+
+    /**
+     * A title, then a megabyte of text pasted behind it
+     * @return The pasted text
+     */
+    private static String paste(CRDTManager manager, String editorCode) {
+        manager.insertString(editorCode, 0, "Title\n", 1);
+        StringBuilder paste = new StringBuilder(1 << 20);
+        while (paste.length() < (1 << 20)) {
+            paste.append("The quick brown fox jumps over the lazy dog. ");
+        }
+        manager.insertString(editorCode, 6, paste, 1);
+        return paste.toString();
+    }
+}
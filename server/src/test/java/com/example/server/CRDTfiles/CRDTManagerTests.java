@@ -0,0 +1,85 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.server.Operation;
+
+class CRDTManagerTests {
+
+    @Test
+    void bothCodesResolveToOneDocument() {
+        CRDTManager manager = new CRDTManager(0);
+        HashMap<String, Object> created = manager.CreateDocument();
+        String editorCode = (String) created.get("editorCode");
+        String viewerCode = (String) created.get("viewerCode");
+
+        DocumentHandle editor = manager.getDocument(editorCode);
+        DocumentHandle viewer = manager.getDocument(viewerCode);
+        assertTrue(editor.canEdit());
+        assertFalse(viewer.canEdit());
+        assertSame(editor.getCrdt(), viewer.getCrdt());
+        assertEquals(editor.getDocumentKey(), viewer.getDocumentKey());
+        assertEquals(viewerCode, manager.getViewerCode(editorCode));
+        assertEquals(viewer.getOperationTopic(), editor.getOperationTopic());
+        assertNull(manager.getDocument("NOPE00"));
+        assertEquals(-1, manager.getDocumentKey("NOPE00"));
+    }
+
+    @Test
+    void joinHandsOutTheDocumentAsASnapshotWithItsSequence() {
+        CRDTManager manager = new CRDTManager(0);
+        String viewerCode = (String) manager.CreateDocument().get("viewerCode");
+        DocumentHandle document = manager.getDocument(viewerCode);
+        Operation hello = new Operation("insert", 4, 1, "hello", -1, -1);
+        Operation bang = new Operation("insert", 4, 6, "!", 4, 5);
+        for (Operation op : List.of(hello, bang)) {
+            manager.record(document, op);
+            manager.insertRemote(viewerCode, op);
+        }
+
+        HashMap<String, Object> joined = manager.joinDocument(viewerCode);
+        assertEquals("V", joined.get("role"));
+        assertEquals(2L, joined.get("sequence"));
+        CRDT snapshot = CRDTSnapshot.read(Base64.getDecoder().decode((String) joined.get("snapshot")));
+        assertEquals("hello!", snapshot.getVisibleString());
+        // The same IDs as on the server, so later operations can name them as parents
+        assertEquals(new CRDT.CharacterId(6, 4), snapshot.getCharacterIdAtPosition(5));
+        assertEquals("Document code not found", manager.joinDocument("NOPE00").get("error"));
+    }
+
+    @Test
+    void operationsStayFastWithManyLiveDocuments() {
+        CRDTManager manager = new CRDTManager(0);
+        int documents = 50_000;
+        List<String> codes = new ArrayList<>(documents);
+        for (int d = 0; d < documents; d++) {
+            codes.add((String) manager.CreateDocument().get("editorCode"));
+        }
+
+        // Scanning every document's codes per operation would cost billions of comparisons here
+        int rounds = 4;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int d = 0; d < documents; d++) {
+                manager.insertRemote(codes.get(d), new Operation("insert", 1, round + 1, "x",
+                    round == 0 ? -1 : 1, round == 0 ? -1 : round));
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("%,d operations across %,d documents in %d ms%n", rounds * documents, documents, elapsedMillis);
+
+        assertEquals("xxxx", manager.getDocumentText(codes.get(documents - 1)));
+        assertTrue(elapsedMillis < 5_000, "Operations took " + elapsedMillis + " ms");
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CRDTMemoryTests {
+
+    private static final int CHARACTERS = 200_000;
+
+    @Test
+    void typedTextBytesPerCharacter() {
+        CRDT crdt = new CRDT();
+        // Typing from two users with per-user clocks: bursts of about 40 characters after the
+        // caret, then a jump to somewhere else in the document, plus the odd deleted word
+        Random random = new Random(5);
+        long[] clocks = new long[3];
+        int typed = 0;
+        while (typed < CHARACTERS) {
+            int user = 1 + random.nextInt(2);
+            int length = crdt.getVisibleLength();
+            CRDT.CharacterId parent = length == 0 ? CRDT.CharacterId.ROOT : crdt.getCharacterIdAtPosition(random.nextInt(length));
+            int burst = Math.min(20 + random.nextInt(40), CHARACTERS - typed);
+            for (int i = 0; i < burst; i++) {
+                CRDT.CharacterId id = new CRDT.CharacterId(++clocks[user], user);
+                crdt.insert(id, parent, (char) ('a' + (typed + i) % 26));
+                parent = id;
+            }
+            typed += burst;
+            if (random.nextInt(10) == 0) {
+                crdt.delete(crdt.getCharacterIdAtPosition(random.nextInt(crdt.getVisibleLength())), 5);
+            }
+        }
+        int visible = crdt.getVisibleLength();
+        int nodes = crdt.nodeMap.size();
+        double bytesPerChar = (double) crdt.estimatedBytes() / CHARACTERS;
+
+        assertTrue(visible > CHARACTERS * 9 / 10);
+        // Bursts and the cuts deletes make in them, not characters, decide the node count
+        assertTrue(nodes < CHARACTERS / 10, nodes + " nodes for " + CHARACTERS + " characters");
+        // One node per character comes to over 120 bytes per character; runs must cut that tenfold
+        assertTrue(bytesPerChar < 13, "CRDT uses an estimated " + bytesPerChar + " bytes per character");
+    }
+}
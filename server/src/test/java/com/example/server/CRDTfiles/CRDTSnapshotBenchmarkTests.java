@@ -0,0 +1,139 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class CRDTSnapshotBenchmarkTests {
+
+    private static final int CHARACTERS = 1_000_000;
+    private static final int ROUNDS = 8;
+
+    @Test
+    void binarySnapshotBeatsJsonOnAMillionCharacters() throws Exception {
+        CRDT crdt = typedDocument();
+        ObjectMapper mapper = new ObjectMapper();
+
+        // Best of several rounds, so JIT warm-up and GC pauses do not decide the comparison
+        byte[] json = null;
+        byte[] snapshot = null;
+        CRDT jsonLoaded = null;
+        CRDT loaded = null;
+        long jsonWriteNanos = Long.MAX_VALUE;
+        long jsonReadNanos = Long.MAX_VALUE;
+        long snapshotWriteNanos = Long.MAX_VALUE;
+        long snapshotReadNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            json = mapper.writeValueAsBytes(toJson(crdt));
+            jsonWriteNanos = Math.min(jsonWriteNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            jsonLoaded = jsonToCrdt(mapper, json);
+            jsonReadNanos = Math.min(jsonReadNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            snapshot = CRDTSnapshot.write(crdt);
+            snapshotWriteNanos = Math.min(snapshotWriteNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            loaded = CRDTSnapshot.read(snapshot);
+            snapshotReadNanos = Math.min(snapshotReadNanos, System.nanoTime() - start);
+        }
+
+        System.out.printf("JSON: %,d bytes (%.1f/char), write %d ms, full load %d ms%n",
+            json.length, (double) json.length / CHARACTERS, jsonWriteNanos / 1_000_000, jsonReadNanos / 1_000_000);
+        System.out.printf("Snapshot: %,d bytes (%.1f/char), write %d ms, full load %d ms%n",
+            snapshot.length, (double) snapshot.length / CHARACTERS, snapshotWriteNanos / 1_000_000, snapshotReadNanos / 1_000_000);
+
+        assertEquals(crdt.getVisibleString(), loaded.getVisibleString());
+        assertEquals(crdt.getVisibleString(), jsonLoaded.getVisibleString());
+        assertTrue(snapshot.length * 3 < json.length, "Snapshot is " + snapshot.length + " bytes, JSON " + json.length);
+        assertTrue(snapshotReadNanos < jsonReadNanos, "Snapshot load took " + snapshotReadNanos + " ns, JSON " + jsonReadNanos);
+    }
+
+    /**
+     * Two authors typing bursts at random places, deleting the odd word, as in CRDTMemoryTests
+     */
+    private static CRDT typedDocument() {
+        CRDT crdt = new CRDT();
+        Random random = new Random(5);
+        long[] clocks = new long[3];
+        int typed = 0;
+        while (typed < CHARACTERS) {
+            int user = 1 + random.nextInt(2);
+            int length = crdt.getVisibleLength();
+            CRDT.CharacterId parent = length == 0 ? CRDT.CharacterId.ROOT : crdt.getCharacterIdAtPosition(random.nextInt(length));
+            int burst = Math.min(20 + random.nextInt(40), CHARACTERS - typed);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < burst; i++) {
+                text.append(random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+            }
+            crdt.insert(new CRDT.CharacterId(clocks[user] + 1, user), parent, text);
+            clocks[user] += burst;
+            typed += burst;
+            if (random.nextInt(10) == 0) {
+                crdt.delete(crdt.getCharacterIdAtPosition(random.nextInt(crdt.getVisibleLength())), 5);
+            }
+        }
+        return crdt;
+    }
+
+    /**
+     * The client's former sync format: a map per node with string keys
+     */
+    private static Map<String, Object> toJson(CRDT crdt) {
+        List<Map<String, Object>> nodes = new ArrayList<>();
+        crdt.nodeMap.forEach(node -> {
+            if (node.key == CRDT.CharacterId.ROOT_KEY) return;
+            CRDT.CharacterId id = node.id();
+            CRDT.CharacterId parentId = node.parentId();
+            Map<String, Object> nodeMap = new HashMap<>();
+            nodeMap.put("id_timestamp", id.timestamp);
+            nodeMap.put("id_userId", id.userId);
+            nodeMap.put("value", node.text());
+            nodeMap.put("isDeleted", node.isDeleted);
+            nodeMap.put("parentId_timestamp", parentId.timestamp);
+            nodeMap.put("parentId_userId", parentId.userId);
+            nodes.add(nodeMap);
+        });
+        Map<String, Object> serialized = new HashMap<>();
+        serialized.put("nodes", nodes);
+        return serialized;
+    }
+
+    /**
+     * The former sync path: parse the maps, build nodes, then link them under their parents
+     * as the client's old rebuild() did
+     */
+    @SuppressWarnings("unchecked")
+    private static CRDT jsonToCrdt(ObjectMapper mapper, byte[] json) throws Exception {
+        Map<String, Object> crdtMap = mapper.readValue(json, Map.class);
+        List<Map<String, Object>> nodes = (List<Map<String, Object>>) crdtMap.get("nodes");
+        CRDT crdt = new CRDT();
+        crdt.clear();
+        List<CRDT.Node> built = new ArrayList<>(nodes.size());
+        for (Map<String, Object> nodeData : nodes) {
+            CRDT.CharacterId id = new CRDT.CharacterId(((Number) nodeData.get("id_timestamp")).longValue(),
+                ((Number) nodeData.get("id_userId")).intValue());
+            CRDT.CharacterId parentId = new CRDT.CharacterId(((Number) nodeData.get("parentId_timestamp")).longValue(),
+                ((Number) nodeData.get("parentId_userId")).intValue());
+            CRDT.Node node = new CRDT.Node(id, parentId, nodeData.get("value").toString(), (boolean) nodeData.get("isDeleted"));
+            crdt.nodeMap.put(node.key, node);
+            built.add(node);
+        }
+        for (CRDT.Node node : built) {
+            CRDT.Node parent = crdt.nodeMap.get(node.parentKey);
+            (parent != null ? parent : crdt.root()).addChild(node);
+        }
+        crdt.reindex();
+        return crdt;
+    }
+}
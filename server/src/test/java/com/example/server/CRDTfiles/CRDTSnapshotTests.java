@@ -0,0 +1,82 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CRDTSnapshotTests {
+
+    @Test
+    void roundTripKeepsTextTombstonesAndIds() {
+        Random random = new Random(11);
+        CRDT crdt = new CRDT();
+        List<CRDT.CharacterId> ids = new ArrayList<>();
+        long[] clocks = new long[4];
+        for (int i = 0; i < 3_000; i++) {
+            int user = random.nextInt(4);
+            CRDT.CharacterId parent = ids.isEmpty() || random.nextInt(4) == 0 ? null : ids.get(random.nextInt(ids.size()));
+            // Runs with repeated characters, non-ASCII text and single characters
+            String text = switch (random.nextInt(3)) {
+                case 0 -> "-".repeat(1 + random.nextInt(12));
+                case 1 -> "naïve ✓";
+                default -> String.valueOf((char) ('a' + random.nextInt(26)));
+            };
+            CRDT.CharacterId id = new CRDT.CharacterId(clocks[user] + 1, user);
+            clocks[user] += text.length();
+            crdt.insert(id, parent, text);
+            ids.add(id);
+            if (random.nextInt(6) == 0) {
+                crdt.delete(ids.get(random.nextInt(ids.size())), 1 + random.nextInt(3));
+            }
+        }
+
+        byte[] snapshot = CRDTSnapshot.write(crdt);
+        CRDT loaded = CRDTSnapshot.read(snapshot);
+
+        assertEquals(crdt.getVisibleString(), loaded.getVisibleString());
+        assertEquals(crdt.nodeMap.size(), loaded.nodeMap.size());
+        for (int pos = 0; pos < crdt.getVisibleLength(); pos++) {
+            CRDT.CharacterId id = crdt.getCharacterIdAtPosition(pos);
+            assertEquals(id, loaded.getCharacterIdAtPosition(pos));
+            assertEquals(crdt.getParentId(id), loaded.getParentId(id));
+        }
+        // Same tree, tombstones included, so writing it again gives the same bytes
+        assertArrayEquals(snapshot, CRDTSnapshot.write(loaded));
+
+        // The loaded copy keeps working as a CRDT
+        CRDT.CharacterId last = crdt.getCharacterIdAtPosition(crdt.getVisibleLength() - 1);
+        CRDT.CharacterId next = new CRDT.CharacterId(100_000, 9);
+        crdt.insert(next, last, "end");
+        loaded.insert(next, last, "end");
+        assertEquals(crdt.getVisibleString(), loaded.getVisibleString());
+    }
+
+    @Test
+    void emptyDocumentRoundTrips() {
+        CRDT loaded = CRDTSnapshot.read(CRDTSnapshot.write(new CRDT()));
+        assertEquals("", loaded.getVisibleString());
+        assertEquals(1, loaded.nodeMap.size());
+    }
+
+    @Test
+    void rejectsDataThatIsNotASnapshot() {
+        CRDT crdt = new CRDT();
+        crdt.insert(new CRDT.CharacterId(1, 1), null, "hello");
+        byte[] snapshot = CRDTSnapshot.write(crdt);
+
+        assertThrows(IllegalArgumentException.class, () -> CRDTSnapshot.read("{\"nodes\":[]}".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> CRDTSnapshot.read(Arrays.copyOf(snapshot, snapshot.length - 2)));
+        byte[] future = snapshot.clone();
+        future[4] = (byte) (CRDTSnapshot.VERSION + 1);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> CRDTSnapshot.read(future));
+        assertTrue(e.getMessage().contains("version"));
+    }
+}
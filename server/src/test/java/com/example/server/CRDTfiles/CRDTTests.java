@@ -0,0 +1,224 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.server.Operation;
+
+class CRDTTests {
+
+    @Test
+    void positionLookupsMatchTreeOrder() {
+        Random random = new Random(42);
+        CRDT crdt = new CRDT();
+        List<CRDT.CharacterId> ids = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            CRDT.CharacterId id = new CRDT.CharacterId(i, random.nextInt(4));
+            // Mix in explicit parents so nodes get several children
+            CRDT.CharacterId parentId = ids.isEmpty() || random.nextInt(3) == 0
+                ? null
+                : ids.get(random.nextInt(ids.size()));
+            crdt.insert(id, parentId, (char) ('a' + random.nextInt(26)));
+            ids.add(id);
+            if (random.nextInt(5) == 0) {
+                crdt.delete(ids.get(random.nextInt(ids.size())));
+            }
+        }
+
+        List<CRDT.CharacterId> expected = new ArrayList<>();
+        collectVisible(crdt.nodeMap.get(CRDT.CharacterId.ROOT), expected);
+
+        assertEquals(expected.size(), crdt.getVisibleLength());
+        for (int pos = 0; pos < expected.size(); pos++) {
+            assertEquals(expected.get(pos), crdt.getCharacterIdAtPosition(pos));
+            assertEquals(pos, crdt.getPositionForCharacterId(expected.get(pos)));
+        }
+        assertNull(crdt.getCharacterIdAtPosition(expected.size()));
+    }
+
+    @Test
+    void insertParentIsLargestSmallerId() {
+        Random random = new Random(3);
+        CRDT crdt = new CRDT();
+        TreeSet<CRDT.CharacterId> seen = new TreeSet<>();
+        for (int i = 0; i < 5_000; i++) {
+            CRDT.CharacterId id = new CRDT.CharacterId(random.nextInt(20_000), random.nextInt(5));
+            if (!seen.add(id)) continue;
+            crdt.insert(id, 'x');
+            CRDT.CharacterId expected = seen.lower(id);
+            assertEquals(expected != null ? expected : CRDT.CharacterId.ROOT, crdt.getParentId(id));
+        }
+    }
+
+    @Test
+    void visibleTextTracksInsertsAndDeletes() {
+        CRDT crdt = new CRDT();
+        String text = "hello world";
+        for (int i = 0; i < text.length(); i++) {
+            crdt.insert(new CRDT.CharacterId(i + 1, 1), text.charAt(i));
+        }
+        assertEquals(text, crdt.getVisibleString());
+
+        crdt.delete(new CRDT.CharacterId(6, 1)); // the space
+        CharSequence view = crdt.getVisibleText();
+        assertEquals(10, view.length());
+        assertEquals('w', view.charAt(5));
+        assertEquals('w', crdt.charAt(5));
+        assertEquals("lowo", view.subSequence(3, 7).toString());
+        assertEquals("helloworld", crdt.getVisibleString());
+
+        // Newer siblings sort after older ones on the server, so this lands after the "world" chain
+        crdt.insert(new CRDT.CharacterId(20, 2), new CRDT.CharacterId(5, 1), '!');
+        assertEquals("helloworld!", view.toString());
+        assertEquals(10, crdt.getPositionForCharacterId(new CRDT.CharacterId(20, 2)));
+    }
+
+    @Test
+    void typingBuildsOneRunThatSplitsOnDemand() {
+        CRDT crdt = new CRDT();
+        String text = "abcdefgh";
+        CRDT.CharacterId parent = CRDT.CharacterId.ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            CRDT.CharacterId id = new CRDT.CharacterId(100 + i, 1);
+            crdt.insert(id, parent, text.charAt(i));
+            parent = id;
+        }
+        assertEquals(2, crdt.nodeMap.size()); // the root and one run
+        assertEquals(new CRDT.CharacterId(102, 1), crdt.getParentId(new CRDT.CharacterId(103, 1)));
+        assertEquals(5, crdt.getPositionForCharacterId(new CRDT.CharacterId(105, 1)));
+
+        // Another user types after "c" with older IDs, so it sorts in front of the rest of the run
+        crdt.insert(new CRDT.CharacterId(50, 2), new CRDT.CharacterId(102, 1), "XY");
+        assertEquals("abcXYdefgh", crdt.getVisibleString());
+        assertEquals(new CRDT.CharacterId(50, 2), crdt.getCharacterIdAtPosition(3));
+        assertEquals(new CRDT.CharacterId(50, 2), crdt.getParentId(new CRDT.CharacterId(51, 2)));
+        assertEquals(new CRDT.CharacterId(103, 1), crdt.getCharacterIdAtPosition(5));
+
+        // Deleting inside a run only hides those characters
+        assertEquals(2, crdt.delete(new CRDT.CharacterId(104, 1), 2));
+        assertEquals("abcXYdgh", crdt.getVisibleString());
+        assertEquals(-1, crdt.getPositionForCharacterId(new CRDT.CharacterId(105, 1)));
+        assertEquals(0, crdt.delete(new CRDT.CharacterId(104, 1), 2));
+
+        // Inserting a known ID again changes nothing; an undelete brings it back in place
+        assertFalse(crdt.insert(new CRDT.CharacterId(105, 1), CRDT.CharacterId.ROOT, "f"));
+        assertEquals("abcXYdgh", crdt.getVisibleString());
+        assertEquals(1, crdt.undelete(new CRDT.CharacterId(105, 1), 1));
+        assertEquals("abcXYdfgh", crdt.getVisibleString());
+        assertEquals(0, crdt.undelete(new CRDT.CharacterId(105, 1), 1));
+
+        List<CRDT.CharacterId> expected = new ArrayList<>();
+        collectVisible(crdt.nodeMap.get(CRDT.CharacterId.ROOT), expected);
+        for (int pos = 0; pos < expected.size(); pos++) {
+            assertEquals(expected.get(pos), crdt.getCharacterIdAtPosition(pos));
+        }
+    }
+
+    @Test
+    void undeleteRacingADeleteEndsTheSameOnTheSenderAsOnTheServer() {
+        CRDT.CharacterId b = new CRDT.CharacterId(2, 1);
+        Operation undelete = new Operation("undelete", 1, 2, "b", -1, -1);
+        Operation delete = new Operation("delete", 1, 2, "b", -1, -1);
+        // Either order the server may put them in
+        for (List<Operation> serverOrder : List.of(List.of(undelete, delete), List.of(delete, undelete))) {
+            CRDT server = new CRDT();
+            CRDT sender = new CRDT();
+            for (CRDT crdt : List.of(server, sender)) {
+                crdt.insert(new CRDT.CharacterId(1, 1), null, "abc");
+                crdt.delete(b, 1);
+            }
+
+            // The sender undoes its delete locally, then gets every operation back in server
+            // order, its own undelete included
+            sender.undelete(b, 1);
+            for (Operation op : serverOrder) {
+                for (CRDT crdt : List.of(server, sender)) {
+                    if (op.getOp().equals("delete")) {
+                        crdt.delete(b, op.runLength());
+                    } else {
+                        crdt.undelete(b, op.runLength());
+                    }
+                }
+            }
+
+            assertEquals(server.getVisibleString(), sender.getVisibleString());
+            assertEquals(serverOrder.get(1) == undelete ? "abc" : "ac", server.getVisibleString());
+        }
+    }
+
+    @Test
+    void millionNodeLinearChainIsStackSafe() {
+        int length = 1_000_000;
+        CRDT crdt = new CRDT();
+        // Two users typing in turn: every character becomes the only child of the previous
+        // one, and alternating authors keep the characters from merging into runs
+        for (int i = 1; i <= length; i++) {
+            crdt.insert(new CRDT.CharacterId(i, i % 2 + 1), (char) ('a' + i % 26));
+        }
+
+        int[] maxDepth = new int[1];
+        int[] exits = new int[1];
+        crdt.walk(crdt.nodeMap.get(CRDT.CharacterId.ROOT), new CRDT.TreeVisitor() {
+            @Override
+            public void enter(CRDT.Node node, int depth) {
+                maxDepth[0] = Math.max(maxDepth[0], depth);
+            }
+
+            @Override
+            public void exit(CRDT.Node node, int depth) {
+                exits[0]++;
+            }
+        });
+        assertEquals(length, maxDepth[0]);
+        assertEquals(length + 1, exits[0]);
+
+        String text = crdt.getVisibleString();
+        assertEquals(length, text.length());
+        assertEquals((char) ('a' + length % 26), text.charAt(length - 1));
+        assertEquals(new CRDT.CharacterId(length / 2, length / 2 % 2 + 1), crdt.getCharacterIdAtPosition(length / 2 - 1));
+    }
+
+    @Test
+    void userIdsAcrossTheWholeIntRangeKeepTheirIdentity() {
+        long key = CRDT.CharacterId.pack(CRDT.CharacterId.MAX_TIMESTAMP, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, CRDT.CharacterId.userIdOf(key));
+        assertEquals(CRDT.CharacterId.MAX_TIMESTAMP, CRDT.CharacterId.timestampOf(key));
+        assertEquals(CRDT.CharacterId.ROOT_KEY, CRDT.CharacterId.pack(-1, -1));
+        assertEquals(CRDT.CharacterId.ROOT, CRDT.CharacterId.unpack(CRDT.CharacterId.ROOT_KEY));
+
+        // Used to come back negative from 2^19 on, which made deletes and ordering go wrong
+        int user = 1 << 19;
+        CRDT crdt = new CRDT();
+        crdt.insert(new CRDT.CharacterId(1, 1), CRDT.CharacterId.ROOT, "ab");
+        crdt.insert(new CRDT.CharacterId(5, user), new CRDT.CharacterId(2, 1), "cd");
+        crdt.insert(new CRDT.CharacterId(7, user + 1), new CRDT.CharacterId(6, user), "e");
+        assertEquals("abcde", crdt.getVisibleString());
+        assertEquals(new CRDT.CharacterId(6, user), crdt.getParentId(new CRDT.CharacterId(7, user + 1)));
+        assertEquals(1, crdt.delete(new CRDT.CharacterId(5, user), 1));
+        assertEquals("abde", crdt.getVisibleString());
+
+        assertThrows(IllegalArgumentException.class, () -> CRDT.CharacterId.pack(1, -2));
+        assertThrows(IllegalArgumentException.class, () -> CRDT.CharacterId.pack(-1, 3));
+        assertThrows(IllegalArgumentException.class, () -> CRDT.CharacterId.pack(CRDT.CharacterId.MAX_TIMESTAMP + 1, 3));
+        assertFalse(CRDT.CharacterId.fits(CRDT.CharacterId.MAX_TIMESTAMP + 1, 3));
+    }
+
+    private static void collectVisible(CRDT.Node node, List<CRDT.CharacterId> result) {
+        for (CRDT.Node child : node.children()) {
+            for (int i = 0; i < child.length() && !child.isDeleted; i++) {
+                result.add(child.idAt(i));
+            }
+            collectVisible(child, result);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class ChildInsertBenchmarkTests {
+
+    private static final int CHILDREN = 200_000;
+
+    @Test
+    void appendingToContendedParentKeepsChildrenSorted() {
+        // Oldest-first ordering: every new root child lands at the back
+        assertSorted(fill(appending()), CHILDREN);
+    }
+
+    @Test
+    void prependingToContendedParentKeepsChildrenSorted() {
+        // Every new root child sorts first, as with the client's newest-first ordering
+        assertSorted(fill(prepending()), CHILDREN);
+    }
+
+    @Test
+    void randomInsertsIntoContendedParentKeepChildrenSorted() {
+        assertSorted(fill(shuffled()), CHILDREN / 4);
+    }
+
+    @Tag("benchmark")
+    @Test
+    void insertsIntoContendedParentStayFast() {
+        for (List<CRDT.CharacterId> ids : List.of(appending(), prepending(), shuffled())) {
+            long start = System.nanoTime();
+            fill(ids);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            // A linear scan per insert would need tens of billions of comparisons here
+            assertTrue(elapsedMillis < 5_000, ids.size() + " inserts took " + elapsedMillis + " ms");
+        }
+    }
+
+    private static List<CRDT.CharacterId> appending() {
+        List<CRDT.CharacterId> ids = new ArrayList<>();
+        for (int i = 0; i < CHILDREN; i++) {
+            ids.add(new CRDT.CharacterId(i + 1, 1));
+        }
+        return ids;
+    }
+
+    private static List<CRDT.CharacterId> prepending() {
+        List<CRDT.CharacterId> ids = new ArrayList<>();
+        for (int i = CHILDREN; i > 0; i--) {
+            ids.add(new CRDT.CharacterId(i, 1));
+        }
+        return ids;
+    }
+
+    private static List<CRDT.CharacterId> shuffled() {
+        List<CRDT.CharacterId> ids = new ArrayList<>();
+        for (int i = 0; i < CHILDREN / 4; i++) {
+            ids.add(new CRDT.CharacterId(i + 1, i % 7));
+        }
+        Collections.shuffle(ids, new Random(7));
+        return ids;
+    }
+
+    private static CRDT.Node fill(List<CRDT.CharacterId> ids) {
+        CRDT.Node parent = new CRDT.Node(CRDT.CharacterId.ROOT, null, '\0', false);
+        for (CRDT.CharacterId id : ids) {
+            parent.addChild(new CRDT.Node(id, null, 'x', false));
+        }
+        return parent;
+    }
+
+    private static void assertSorted(CRDT.Node parent, int children) {
+        assertEquals(children, parent.childCount());
+        for (int i = 1; i < parent.childCount(); i++) {
+            assertTrue(parent.child(i - 1).id().compareTo(parent.child(i).id()) < 0);
+        }
+    }
+}
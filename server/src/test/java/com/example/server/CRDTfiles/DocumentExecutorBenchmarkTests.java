@@ -0,0 +1,100 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.server.Operation;
+
+class DocumentExecutorBenchmarkTests {
+
+    private static final int DOCUMENTS = 64;
+    private static final int THREADS = 16;
+    private static final int OPS_PER_DOCUMENT = 4_000;
+
+    @Test
+    void manyDocumentsFromManyThreadsApplyInOrder() throws Exception {
+        CRDTManager manager = new CRDTManager(0);
+        List<String> codes = new ArrayList<>();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            codes.add((String) manager.CreateDocument().get("editorCode"));
+        }
+        DocumentExecutor executor = new DocumentExecutor();
+
+        // Each thread owns a slice of the documents and types into them in turn. Every
+        // character's parent is the one before it, so any reordering would scramble the text.
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            producers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < OPS_PER_DOCUMENT; i++) {
+                    for (int d = thread; d < DOCUMENTS; d += THREADS) {
+                        String code = codes.get(d);
+                        int user = d + 1;
+                        Operation op = new Operation("insert", user, i + 1, String.valueOf((char) ('a' + i % 26)),
+                            i == 0 ? -1 : user, i == 0 ? -1 : i);
+                        executor.execute(manager.getDocumentKey(code), () -> manager.insertRemote(code, op));
+                    }
+                }
+            }));
+        }
+
+        long startNanos = System.nanoTime();
+        producers.forEach(Thread::start);
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        int totalOps = DOCUMENTS * OPS_PER_DOCUMENT;
+        System.out.printf("%,d ops over %d documents from %d threads on %d cores: %,.0f ops/sec%n",
+            totalOps, DOCUMENTS, THREADS, Runtime.getRuntime().availableProcessors(), totalOps / seconds);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < OPS_PER_DOCUMENT; i++) {
+            expected.append((char) ('a' + i % 26));
+        }
+        for (String code : codes) {
+            assertEquals(expected.toString(), manager.getDocumentText(code));
+        }
+    }
+
+    @Test
+    void oneDocumentNeverRunsTwoTasksAtOnce() throws Exception {
+        DocumentExecutor executor = new DocumentExecutor(4);
+        int[] inside = new int[1];
+        int[] maxInside = new int[1];
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            int n = i;
+            executor.execute(7, () -> {
+                // Unsynchronized on purpose: a second writer would show up as an overlap or a lost entry
+                maxInside[0] = Math.max(maxInside[0], ++inside[0]);
+                order.add(n);
+                inside[0]--;
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, maxInside[0]);
+        assertEquals(10_000, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.server.Operation;
+import com.example.server.storage.DocumentStore;
+import com.example.server.storage.OperationLog;
+
+class DocumentHibernatorTests {
+
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private OperationLog log;
+    private DocumentStore store;
+    private CRDTManager manager;
+    private DocumentExecutor executor;
+    private final List<String> codes = new ArrayList<>();
+
+    @BeforeEach
+    void createDocuments() {
+        log = new OperationLog(directory.resolve("oplog"));
+        store = new DocumentStore(directory.resolve("documents"), log);
+        manager = new CRDTManager(0, store);
+        executor = new DocumentExecutor(1);
+        for (int d = 0; d < 4; d++) {
+            String code = (String) manager.CreateDocument().get("editorCode");
+            Operation op = new Operation("insert", 5, 1, "document " + d + " ".repeat(d * 1_000), -1, -1);
+            log.append(manager.getDocumentKey(code), op);
+            manager.insertRemote(code, op);
+            codes.add(code);
+        }
+    }
+
+    @AfterEach
+    void close() {
+        executor.shutdown();
+        log.close();
+        store.close();
+    }
+
+    @Test
+    void idleDocumentsNobodyIsInAreHibernatedAndComeBack() {
+        int busy = manager.getDocumentKey(codes.get(1));
+        try (DocumentHibernator hibernator = new DocumentHibernator(manager, executor, key -> key == busy, Long.MAX_VALUE, 0, HOUR_MILLIS)) {
+            assertEquals(3, hibernator.scan());
+            drain();
+        }
+        for (int d = 0; d < codes.size(); d++) {
+            assertEquals(d == 1, manager.getDocument(codes.get(d)).isLoaded());
+        }
+
+        // Any lookup reads the document back in, edits included
+        assertTrue(manager.getDocumentText(codes.get(2)).startsWith("document 2"));
+        Map<String, Object> stats = manager.getMemoryStats();
+        assertEquals(3L, stats.get("evictions"));
+        assertEquals(1L, stats.get("rehydrations"));
+        assertEquals(2L, stats.get("loadedDocuments"));
+    }
+
+    @Test
+    void overBudgetHibernatesLeastRecentlyUsedFirst() throws InterruptedException {
+        long total = (long) manager.getMemoryStats().get("estimatedBytes");
+        long largest = manager.getCRDT(codes.get(3)).estimatedBytes();
+        // Touch in order 3, 0, 2, 1, so 3 is the least recently used
+        for (int d : new int[] { 3, 0, 2, 1 }) {
+            manager.getCRDT(codes.get(d));
+            Thread.sleep(2);
+        }
+
+        // Dropping document 3 alone brings the total under budget
+        try (DocumentHibernator hibernator = new DocumentHibernator(manager, executor, key -> false, total - largest, HOUR_MILLIS, HOUR_MILLIS)) {
+            assertEquals(1, hibernator.scan());
+            drain();
+        }
+        assertFalse(manager.getDocument(codes.get(3)).isLoaded());
+        for (int d = 0; d < 3; d++) {
+            assertTrue(manager.getDocument(codes.get(d)).isLoaded());
+        }
+    }
+
+    @Test
+    void documentUsedAfterTheScanStaysLoaded() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        // Hold the only stripe, so hibernation queues up behind an edit
+        executor.execute(0, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try (DocumentHibernator hibernator = new DocumentHibernator(manager, executor, key -> false, Long.MAX_VALUE, 0, HOUR_MILLIS)) {
+            assertEquals(4, hibernator.scan());
+            Thread.sleep(2);
+            manager.getCRDT(codes.get(0));
+            release.countDown();
+            drain();
+        }
+        assertTrue(manager.getDocument(codes.get(0)).isLoaded());
+        assertEquals(3L, manager.getMemoryStats().get("evictions"));
+    }
+
+    @Test
+    void hibernatedDocumentsLeaveNoLogSegmentMapped() {
+        try (DocumentHibernator hibernator = new DocumentHibernator(manager, executor, key -> false, Long.MAX_VALUE, 0, HOUR_MILLIS)) {
+            assertEquals(4, hibernator.scan());
+            drain();
+        }
+        log.sync();
+        assertTrue(log.openDocuments().isEmpty());
+        assertEquals(0, log.mappedSegments());
+
+        // The next edit opens the log again, behind the snapshot
+        String code = codes.get(0);
+        Operation op = new Operation("insert", 5, 100, "!", 5, 1);
+        log.append(manager.getDocumentKey(code), op);
+        manager.insertRemote(code, op);
+        assertEquals(1, log.mappedSegments());
+        String text = manager.getDocumentText(code);
+        try (DocumentHibernator hibernator = new DocumentHibernator(manager, executor, key -> false, Long.MAX_VALUE, 0, HOUR_MILLIS)) {
+            hibernator.scan();
+            drain();
+        }
+        assertFalse(manager.getDocument(code).isLoaded());
+        assertEquals(text, manager.getDocumentText(code));
+        assertTrue(text.contains("!"));
+    }
+
+    private void drain() {
+        for (String code : codes) {
+            executor.submit(manager.getDocumentKey(code), () -> null).join();
+        }
+    }
+}
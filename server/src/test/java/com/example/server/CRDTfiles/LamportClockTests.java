@@ -0,0 +1,27 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class LamportClockTests {
+
+    @Test
+    void ticksReserveConsecutiveTimestamps() {
+        LamportClock clock = new LamportClock();
+        assertEquals(1, clock.tick());
+        assertEquals(2, clock.tick(5));
+        assertEquals(7, clock.tick());
+    }
+
+    @Test
+    void observedTimestampsPushTheClockForward() {
+        LamportClock clock = new LamportClock();
+        clock.tick();
+        clock.observe(41);
+        assertEquals(42, clock.tick());
+        // Older remote timestamps never move it back
+        clock.observe(3);
+        assertEquals(43, clock.tick());
+    }
+}
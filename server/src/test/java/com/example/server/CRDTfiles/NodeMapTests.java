@@ -0,0 +1,132 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+class NodeMapTests {
+
+    @Test
+    void behavesLikeAHashMap() {
+        Random random = new Random(1);
+        NodeMap nodeMap = new NodeMap();
+        Map<Long, CRDT.Node> expected = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            CRDT.CharacterId id = new CRDT.CharacterId(random.nextInt(50_000), random.nextInt(8));
+            CRDT.Node node = new CRDT.Node(id, CRDT.CharacterId.ROOT, 'x', false);
+            assertSame(expected.put(id.key(), node), nodeMap.put(id.key(), node));
+        }
+        assertEquals(expected.size(), nodeMap.size());
+        expected.forEach((key, node) -> assertSame(node, nodeMap.get(key)));
+        assertNull(nodeMap.get(CRDT.CharacterId.pack(60_000, 1)));
+    }
+
+    @Test
+    void charactersInsideARunFindTheirNode() {
+        NodeMap nodeMap = new NodeMap();
+        CRDT.Node run = new CRDT.Node(new CRDT.CharacterId(10, 2), CRDT.CharacterId.ROOT, "hello", false);
+        CRDT.Node other = new CRDT.Node(new CRDT.CharacterId(12, 1), CRDT.CharacterId.ROOT, "ab", false);
+        nodeMap.put(run.id().key(), run);
+        nodeMap.put(other.id().key(), other);
+
+        assertSame(run, nodeMap.get(CRDT.CharacterId.pack(14, 2)));
+        assertNull(nodeMap.get(CRDT.CharacterId.pack(15, 2)));
+        assertSame(other, nodeMap.get(CRDT.CharacterId.pack(13, 1)));
+        assertNull(nodeMap.get(CRDT.CharacterId.pack(11, 1)));
+        // Largest character ID below (13, 2) is (13, 1), which sits inside the other run
+        assertEquals(CRDT.CharacterId.pack(13, 1), nodeMap.lower(CRDT.CharacterId.pack(13, 2)));
+        assertEquals(CRDT.CharacterId.ROOT_KEY, nodeMap.lower(CRDT.CharacterId.pack(10, 2)));
+    }
+
+    @Test
+    void lowerMatchesAScanOfEveryCharacter() {
+        Random random = new Random(7);
+        NodeMap nodeMap = new NodeMap();
+        TreeSet<Long> characters = new TreeSet<>();
+        for (int user = 0; user < 2_000; user++) {
+            int timestamp = random.nextInt(5_000);
+            int length = 1 + random.nextInt(5);
+            CRDT.Node run = new CRDT.Node(new CRDT.CharacterId(timestamp, user), CRDT.CharacterId.ROOT, "x".repeat(length), false);
+            nodeMap.put(run.key, run);
+            for (int i = 0; i < length; i++) {
+                characters.add(CRDT.CharacterId.pack(timestamp + i, user));
+            }
+        }
+        for (int i = 0; i < 2_000; i++) {
+            long key = CRDT.CharacterId.pack(random.nextInt(5_100), random.nextInt(2_100));
+            Long expected = characters.lower(key);
+            assertEquals(expected != null ? expected : CRDT.CharacterId.ROOT_KEY, nodeMap.lower(key));
+        }
+    }
+
+    @Test
+    void insertingNewIdsDoesNotSlowDownWithTheNumberOfAuthors() {
+        // Every join gets a fresh user ID, so a long-lived document gathers many authors
+        int authors = 50_000;
+        CRDT crdt = new CRDT();
+        long start = System.nanoTime();
+        for (int user = 0; user < authors; user++) {
+            crdt.insert(new CRDT.CharacterId(2L * user, user), 'a');
+            crdt.insert(new CRDT.CharacterId(2L * user + 1, user), 'b');
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Each run was extended in place, and each parent was the previous character
+        assertEquals(authors + 1, crdt.nodeMap.size());
+        assertEquals(new CRDT.CharacterId(2L * authors - 2, authors - 1), crdt.getParentId(new CRDT.CharacterId(2L * authors - 1, authors - 1)));
+        assertEquals(2 * authors, crdt.getVisibleLength());
+        // Scanning every author per insert made this quadratic in the number of authors
+        assertTrue(elapsedMillis < 5_000, "Inserts took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void rootHasARealKey() {
+        assertEquals(-1L, CRDT.CharacterId.ROOT.key());
+        CRDT crdt = new CRDT();
+        assertSame(crdt.nodeMap.get(-1L), crdt.nodeMap.get(CRDT.CharacterId.ROOT));
+        assertEquals(1, crdt.nodeMap.size());
+    }
+
+    @Test
+    void lookupsDoNotAllocate() {
+        NodeMap nodeMap = new NodeMap();
+        int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            nodeMap.put(CRDT.CharacterId.pack(i, 3), new CRDT.Node(new CRDT.CharacterId(i, 3), CRDT.CharacterId.ROOT, 'x', false));
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long found = 0;
+        // Warm up first so the measured loop runs compiled code
+        for (int round = 0; round < 20; round++) {
+            found += lookUpAll(nodeMap, count);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        found += lookUpAll(nodeMap, count);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(21L * count, found);
+        // Boxed keys would cost at least 16 bytes per lookup; allow a little slack for the probe itself
+        assertTrue(allocated < count, "Lookups allocated " + allocated + " bytes");
+    }
+
+    private static long lookUpAll(NodeMap nodeMap, int count) {
+        long found = 0;
+        for (int i = 0; i < count; i++) {
+            if (nodeMap.get(CRDT.CharacterId.pack(i, 3)) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
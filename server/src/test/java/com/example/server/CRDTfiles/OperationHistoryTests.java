@@ -0,0 +1,63 @@
+package com.example.server.CRDTfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.server.Operation;
+
+class OperationHistoryTests {
+
+    @Test
+    void operationsAreNumberedInOrderAndListedFromAnyKeptSequence() {
+        OperationHistory history = new OperationHistory(4);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, history.append(insert(i)));
+        }
+        assertEquals(List.of(2L, 3L), sequences(history.since(1)));
+        assertEquals(List.of(1L, 2L, 3L), sequences(history.since(0)));
+        assertTrue(history.since(3).isEmpty());
+    }
+
+    @Test
+    void fullRingOverwritesTheOldestAndReportsTheGap() {
+        OperationHistory history = new OperationHistory(4);
+        for (int i = 0; i < 10; i++) {
+            history.append(insert(i));
+        }
+        assertEquals(7, history.firstSequence());
+        assertEquals(10, history.lastSequence());
+        assertEquals(List.of(7L, 8L, 9L, 10L), sequences(history.since(6)));
+        assertNull(history.since(5), "Operation 6 is gone");
+
+        history.dropOldest(3);
+        assertEquals(List.of(10L), sequences(history.since(9)));
+        assertNull(history.since(8));
+    }
+
+    @Test
+    void resetKeepsNumberingAndRestoreChecksOrder() {
+        OperationHistory history = new OperationHistory(4);
+        history.append(insert(0));
+        history.reset(41);
+        assertEquals(42, history.firstSequence());
+        assertEquals(42, history.append(insert(1)));
+
+        Operation old = insert(2);
+        old.setSequence(42);
+        assertThrows(IllegalArgumentException.class, () -> history.restore(old));
+    }
+
+    private static Operation insert(int i) {
+        return new Operation("insert", 1, i + 1, "x", i == 0 ? -1 : 1, i);
+    }
+
+    private static List<Long> sequences(List<Operation> operations) {
+        return operations.stream().map(Operation::getSequence).toList();
+    }
+}
@@ -3,7 +3,8 @@ package com.example.server;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// A real container, as the WebSocket limits are set on it
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = { "collab.oplog.dir=target/test-data/oplog", "collab.store.dir=target/test-data/documents" })
 class ServerApplicationTests {
 
 	@Test
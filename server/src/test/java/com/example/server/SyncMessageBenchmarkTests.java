@@ -0,0 +1,111 @@
+package com.example.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.server.CRDTfiles.CRDT;
+import com.example.server.CRDTfiles.OperationHistory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class SyncMessageBenchmarkTests {
+
+    private static final int OPERATIONS = 100_000;
+    private static final int OPERATIONS_PER_FRAME = 4_096;
+    private static final int ROUNDS = 3;
+
+    @Test
+    void joiningAHundredThousandOperationDocumentTakesWellUnderASecond() throws Exception {
+        OperationHistory history = new OperationHistory(OPERATIONS);
+        CRDT typed = new CRDT();
+        for (int i = 0; i < OPERATIONS; i++) {
+            Operation op = new Operation("insert", 3, i + 1, String.valueOf((char) ('a' + i % 26)), i == 0 ? -1 : 3, i);
+            history.append(op);
+            apply(typed, op);
+        }
+        List<Operation> missed = history.since(0);
+        ObjectMapper mapper = new ObjectMapper();
+
+        // Best of several rounds, so JIT warm-up and GC pauses do not decide the comparison
+        long perOperationNanos = Long.MAX_VALUE;
+        long batchedNanos = Long.MAX_VALUE;
+        int frames = 0;
+        CRDT joined = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            // One message per operation, each decoded and applied on its own
+            long start = System.nanoTime();
+            CRDT crdt = new CRDT();
+            for (Operation op : missed) {
+                apply(crdt, mapper.readValue(mapper.writeValueAsBytes(op), Operation.class));
+            }
+            perOperationNanos = Math.min(perOperationNanos, System.nanoTime() - start);
+
+            // The same operations in sync messages of a few thousand each
+            start = System.nanoTime();
+            joined = new CRDT();
+            List<byte[]> encoded = new ArrayList<>();
+            for (SyncMessage frame : SyncMessage.frames(missed, history.lastSequence(), OPERATIONS_PER_FRAME, Integer.MAX_VALUE)) {
+                encoded.add(mapper.writeValueAsBytes(frame));
+            }
+            for (byte[] bytes : encoded) {
+                SyncMessage frame = mapper.readValue(bytes, SyncMessage.class);
+                for (Operation op : frame.getOperations()) {
+                    apply(joined, op);
+                }
+            }
+            batchedNanos = Math.min(batchedNanos, System.nanoTime() - start);
+            frames = encoded.size();
+        }
+
+        System.out.printf("Sync of %,d operations: %,d messages in %d ms, %d messages in %d ms%n",
+            OPERATIONS, OPERATIONS, perOperationNanos / 1_000_000, frames, batchedNanos / 1_000_000);
+
+        assertEquals(typed.getVisibleString(), joined.getVisibleString());
+        assertEquals((OPERATIONS + OPERATIONS_PER_FRAME - 1) / OPERATIONS_PER_FRAME, frames);
+        assertTrue(batchedNanos < 1_000_000_000L, "Batched sync took " + batchedNanos / 1_000_000 + " ms");
+    }
+
+    @Test
+    void framesCarryTheSequenceTheyReachAndOnlyTheLastIsMarked() {
+        List<Operation> operations = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            Operation op = new Operation("delete", 1, i, "x", -1, -1);
+            op.setSequence(40 + i);
+            operations.add(op);
+        }
+        List<SyncMessage> frames = SyncMessage.frames(operations, 50, 4, Integer.MAX_VALUE);
+        assertEquals(3, frames.size());
+        assertEquals(44, frames.get(0).getSequence());
+        assertEquals(50, frames.get(2).getSequence());
+        assertEquals(List.of(false, false, true), frames.stream().map(SyncMessage::isLast).toList());
+
+        List<SyncMessage> nothingMissed = SyncMessage.frames(List.of(), 50, 4, Integer.MAX_VALUE);
+        assertEquals(1, nothingMissed.size());
+        assertTrue(nothingMissed.get(0).isLast());
+    }
+
+    @Test
+    void longValuesAreSplitByCharactersAsWell() {
+        List<Operation> operations = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            // One over-long paste slice in the middle
+            Operation op = new Operation("insert", 1, i, "x".repeat(i == 3 ? 25 : 4), -1, -1);
+            op.setSequence(i);
+            operations.add(op);
+        }
+        List<SyncMessage> frames = SyncMessage.frames(operations, 6, 100, 10);
+        // 4 + 4 | 25 alone | 4 + 4 | 4
+        assertEquals(List.of(2, 1, 2, 1), frames.stream().map(frame -> frame.getOperations().size()).toList());
+        assertEquals(List.of(2L, 3L, 5L, 6L), frames.stream().map(SyncMessage::getSequence).toList());
+        assertEquals(List.of(false, false, false, true), frames.stream().map(SyncMessage::isLast).toList());
+    }
+
+    private static void apply(CRDT crdt, Operation op) {
+        CRDT.CharacterId parent = op.getParentID() == -1 ? null : new CRDT.CharacterId(op.getParentTimestamp(), op.getParentID());
+        crdt.insert(new CRDT.CharacterId(op.getTimestamp(), op.getID()), parent, op.getValue());
+    }
+}
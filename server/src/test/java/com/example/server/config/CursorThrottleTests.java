@@ -0,0 +1,76 @@
+package com.example.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+class CursorThrottleTests {
+
+    private final List<Map<?, ?>> sent = new CopyOnWriteArrayList<>();
+    private final DocumentFanout fanout = new DocumentFanout(new SimpMessagingTemplate((message, timeout) ->
+        sent.add((Map<?, ?>) message.getPayload())));
+    private final CRDTManager manager = new CRDTManager(0);
+    private final DocumentHandle document = manager.getDocument((String) manager.CreateDocument().get("editorCode"));
+
+    @Test
+    void firstMoveGoesOutAtOnceAndABurstIsMergedToTheLatestPositions() throws InterruptedException {
+        try (CursorThrottle throttle = new CursorThrottle(fanout, 50)) {
+            throttle.update(document, Map.of("1", "1,0"));
+            assertEquals(List.of(Map.of("1", "1,0")), sent);
+
+            for (int column = 1; column <= 100; column++) {
+                throttle.update(document, Map.of("1", "1," + column));
+                throttle.update(document, Map.of("2", "3," + column));
+            }
+            assertEquals(1, sent.size());
+
+            Thread.sleep(200);
+            assertEquals(List.of(Map.of("1", "1,0"), Map.of("1", "1,100", "2", "3,100")), sent);
+        }
+    }
+
+    @Test
+    void steadyStreamOfMovesIsHeldToTheInterval() throws InterruptedException {
+        try (CursorThrottle throttle = new CursorThrottle(fanout, 50)) {
+            long start = System.nanoTime();
+            int column = 0;
+            while (System.nanoTime() - start < 500_000_000L) {
+                throttle.update(document, Map.of("1", "1," + column++));
+                Thread.sleep(1);
+            }
+            Thread.sleep(100);
+            // About 20 a second, from some 400 moves
+            assertTrue(sent.size() >= 5 && sent.size() <= 12, sent.size() + " messages in half a second");
+            assertEquals(Map.of("1", "1," + (column - 1)), sent.get(sent.size() - 1));
+        }
+    }
+
+    @Test
+    void documentsWithNothingToSendAreDropped() throws InterruptedException {
+        try (CursorThrottle throttle = new CursorThrottle(fanout, 20)) {
+            throttle.update(document, Map.of("1", "1,0"));
+            throttle.update(document, Map.of("1", "1,1"));
+            assertEquals(1, throttle.activeDocuments());
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (throttle.activeDocuments() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, throttle.activeDocuments());
+            assertEquals(List.of(Map.of("1", "1,0"), Map.of("1", "1,1")), sent);
+
+            // Quiet again, so the next move goes straight out
+            throttle.update(document, Map.of("1", "2,0"));
+            assertEquals(3, sent.size());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+class DocumentSubscriptionInterceptorTests {
+
+    private final CRDTManager manager = new CRDTManager(0);
+    private final DocumentSubscriptionInterceptor interceptor = new DocumentSubscriptionInterceptor(manager);
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @Test
+    void bothCodesSubscribeToTheDocumentsTopicsAndRecordTheRole() {
+        HashMap<String, Object> created = manager.CreateDocument();
+        String editorCode = (String) created.get("editorCode");
+        String viewerCode = (String) created.get("viewerCode");
+        DocumentHandle document = manager.getDocument(editorCode);
+
+        assertEquals(document.getOperationTopic(), destination(subscribe("/topic/document/" + viewerCode + "/operation")));
+        assertEquals(DocumentHandle.Role.VIEWER, DocumentSubscriptionInterceptor.roleOf(attributes, document.getDocumentKey()));
+        assertEquals(document.getOperationTopic(), destination(subscribe("/topic/document/" + editorCode + "/operation")));
+        assertEquals(document.getUsersTopic(), destination(subscribe("/topic/session/" + editorCode + "/users")));
+        assertEquals(document.getCursorTopic(), destination(subscribe("/topic/session/" + viewerCode + "/cursor")));
+        // Subscribing with the editor code once is enough to stay an editor
+        assertEquals(DocumentHandle.Role.EDITOR, DocumentSubscriptionInterceptor.roleOf(attributes, document.getDocumentKey()));
+    }
+
+    @Test
+    void documentTopicsNeedACodeAndOtherSubscriptionsPassThrough() {
+        manager.CreateDocument();
+        assertNull(subscribe(DocumentHandle.TOPIC_PREFIX + "1/operation"));
+        Message<?> unknown = subscribe("/topic/document/NOPE00/operation");
+        assertEquals("/topic/document/NOPE00/operation", destination(unknown));
+        Message<?> queue = subscribe("/user/queue/document/sync");
+        assertEquals("/user/queue/document/sync", destination(queue));
+        assertNull(DocumentSubscriptionInterceptor.roleOf(attributes, 1));
+
+        StompHeaderAccessor send = StompHeaderAccessor.create(StompCommand.SEND);
+        send.setDestination(DocumentHandle.TOPIC_PREFIX + "1/operation");
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], send.getMessageHeaders());
+        assertSame(message, interceptor.preSend(message, null));
+    }
+
+    private Message<?> subscribe(String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId("s1");
+        accessor.setSubscriptionId("sub-" + destination.hashCode());
+        accessor.setDestination(destination);
+        accessor.setSessionAttributes(attributes);
+        return interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+    }
+
+    private static String destination(Message<?> message) {
+        return StompHeaderAccessor.wrap(message).getDestination();
+    }
+}
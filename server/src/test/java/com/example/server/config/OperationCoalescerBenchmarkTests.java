@@ -0,0 +1,93 @@
+package com.example.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentExecutor;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+class OperationCoalescerBenchmarkTests {
+
+    private static final int EDITORS = 30;
+    private static final long KEYSTROKE_MILLIS = 33; // about 30 keystrokes a second each
+    private static final long RUN_MILLIS = 1_500;
+
+    @Test
+    void thirtyTypingEditorsGetFarFewerFramesAtABoundedDelay() throws InterruptedException {
+        Result unbatched = run(0);
+        Result batched = run(10);
+
+        System.out.printf("Per operation: %.0f frames/s, delivery p50 %.2f ms, p99 %.2f ms%n",
+            unbatched.framesPerSecond, unbatched.p50Millis, unbatched.p99Millis);
+        System.out.printf("10 ms window:  %.0f frames/s, delivery p50 %.2f ms, p99 %.2f ms%n",
+            batched.framesPerSecond, batched.p50Millis, batched.p99Millis);
+
+        assertTrue(batched.framesPerSecond * 4 < unbatched.framesPerSecond,
+            "Batched " + batched.framesPerSecond + " frames/s, unbatched " + unbatched.framesPerSecond);
+        assertTrue(batched.p99Millis < 50, "p99 delivery took " + batched.p99Millis + " ms");
+    }
+
+    private record Result(double framesPerSecond, double p50Millis, double p99Millis) {
+    }
+
+    /**
+     * Every editor types into one document on its own schedule; each operation goes through
+     * the stripe and the coalescer the way the controller sends it
+     */
+    private static Result run(long windowMillis) throws InterruptedException {
+        Map<Operation, Long> created = new ConcurrentHashMap<>();
+        List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger frames = new AtomicInteger();
+        DocumentFanout fanout = new DocumentFanout(new SimpMessagingTemplate((message, timeout) -> {
+            long now = System.nanoTime();
+            frames.incrementAndGet();
+            for (Object op : (List<?>) message.getPayload()) {
+                delays.add(now - created.get(op));
+            }
+            return true;
+        }));
+        CRDTManager manager = new CRDTManager(0);
+        DocumentHandle document = manager.getDocument((String) manager.CreateDocument().get("editorCode"));
+        DocumentExecutor executor = new DocumentExecutor(2);
+        ScheduledExecutorService editors = Executors.newScheduledThreadPool(4);
+        AtomicLong clock = new AtomicLong();
+
+        try (OperationCoalescer coalescer = new OperationCoalescer(fanout, executor, windowMillis, 256, true)) {
+            for (int e = 0; e < EDITORS; e++) {
+                int user = e + 1;
+                editors.scheduleAtFixedRate(() -> {
+                    Operation op = new Operation("insert", user, clock.incrementAndGet(), "x", -1, -1);
+                    created.put(op, System.nanoTime());
+                    executor.execute(document.getDocumentKey(), () -> coalescer.broadcast(document, op));
+                }, e, KEYSTROKE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            Thread.sleep(RUN_MILLIS);
+            editors.shutdownNow();
+            editors.awaitTermination(1, TimeUnit.SECONDS);
+            // Let the last window close
+            Thread.sleep(windowMillis + 50);
+            executor.submit(document.getDocumentKey(), () -> null).join();
+        }
+        executor.shutdown();
+
+        List<Long> sorted = new ArrayList<>(delays);
+        Collections.sort(sorted);
+        return new Result(frames.get() * 1000.0 / RUN_MILLIS,
+            sorted.get(sorted.size() / 2) / 1e6, sorted.get((int) (sorted.size() * 0.99)) / 1e6);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentExecutor;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+class OperationCoalescerTests {
+
+    private final List<List<?>> frames = new CopyOnWriteArrayList<>();
+    private final DocumentFanout fanout = new DocumentFanout(new SimpMessagingTemplate((message, timeout) ->
+        frames.add((List<?>) message.getPayload())));
+    private final DocumentExecutor executor = new DocumentExecutor(1);
+    private final CRDTManager manager = new CRDTManager(0);
+    private final DocumentHandle document = manager.getDocument((String) manager.CreateDocument().get("editorCode"));
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void quietDocumentGetsItsOperationAtOnceAndABurstSharesAFrame() throws InterruptedException {
+        try (OperationCoalescer coalescer = new OperationCoalescer(fanout, executor, 50, 100, true)) {
+            executor.submit(0, () -> {
+                coalescer.broadcast(document, insert(1));
+                // Sent before broadcast returned
+                assertEquals(1, frames.size());
+                for (int i = 2; i <= 5; i++) {
+                    coalescer.broadcast(document, insert(i));
+                }
+                return null;
+            }).join();
+            assertEquals(1, frames.size());
+
+            Thread.sleep(150);
+            executor.submit(0, () -> null).join();
+            assertEquals(List.of(1, 4), frames.stream().map(List::size).toList());
+        }
+    }
+
+    @Test
+    void fullBatchGoesOutWithoutWaitingAndWithoutAdaptiveEverythingWaits() {
+        try (OperationCoalescer coalescer = new OperationCoalescer(fanout, executor, 60_000, 3, false)) {
+            executor.submit(0, () -> {
+                for (int i = 1; i <= 7; i++) {
+                    coalescer.broadcast(document, insert(i));
+                }
+                return null;
+            }).join();
+            // The seventh is still waiting for its window
+            assertEquals(List.of(3, 3), frames.stream().map(List::size).toList());
+        }
+    }
+
+    @Test
+    void batchesOfDocumentsThatWentQuietAreDropped() throws InterruptedException {
+        try (OperationCoalescer coalescer = new OperationCoalescer(fanout, executor, 20, 100, true)) {
+            executor.submit(0, () -> {
+                for (int i = 1; i <= 5; i++) {
+                    coalescer.broadcast(document, insert(i));
+                }
+                return null;
+            }).join();
+            assertEquals(1, coalescer.activeDocuments());
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (coalescer.activeDocuments() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, coalescer.activeDocuments());
+            assertEquals(List.of(1, 4), frames.stream().map(List::size).toList());
+
+            // Quiet again, so the next one goes straight out
+            executor.submit(0, () -> {
+                coalescer.broadcast(document, insert(6));
+                return null;
+            }).join();
+            assertEquals(3, frames.size());
+        }
+    }
+
+    private static Operation insert(int i) {
+        return new Operation("insert", 1, i, "x", i == 1 ? -1 : 1, i - 1);
+    }
+}
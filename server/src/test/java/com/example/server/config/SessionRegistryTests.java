@@ -0,0 +1,88 @@
+package com.example.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentHandle;
+
+class SessionRegistryTests {
+
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final SessionRegistry registry = new SessionRegistry(
+        new DocumentFanout(new SimpMessagingTemplate((message, timeout) -> sent.add(message))));
+    private final CRDTManager manager = new CRDTManager(0);
+
+    @Test
+    void membersJoinAndLeaveWithDeltas() {
+        DocumentHandle document = manager.getDocument((String) manager.CreateDocument().get("editorCode"));
+        connect("s1");
+        connect("s2");
+
+        assertEquals(List.of(1), registry.join("s1", document, 1));
+        assertEquals(Set.of(1, 2), new HashSet<>(registry.join("s2", document, 2)));
+        // One delta per join, on the document's topic for editors and viewers alike
+        assertEquals(2, sent.size());
+        assertEquals(document.getUsersTopic(), sent.get(1).getHeaders().get("simpDestination"));
+
+        disconnect("s1");
+        assertEquals(List.of(2), registry.getMembers(document.getDocumentKey()));
+        assertEquals(3, sent.size());
+        assertEquals(Map.of("left", List.of(1)), sent.get(2).getPayload());
+
+        // The last member leaving releases the document's entry
+        disconnect("s2");
+        assertEquals(0, registry.activeDocumentCount());
+        assertEquals(List.of(), registry.getMembers(document.getDocumentKey()));
+    }
+
+    @Test
+    void reconnectedUserIsNotDroppedByTheOldSession() {
+        DocumentHandle document = manager.getDocument((String) manager.CreateDocument().get("editorCode"));
+        registry.join("old", document, 5);
+        registry.join("new", document, 5);
+        disconnect("old");
+        assertEquals(List.of(5), registry.getMembers(document.getDocumentKey()));
+    }
+
+    @Test
+    void manyDocumentsReleaseTheirEntries() {
+        for (int d = 0; d < 1_000; d++) {
+            DocumentHandle document = manager.getDocument((String) manager.CreateDocument().get("editorCode"));
+            registry.join("s" + d, document, d);
+        }
+        assertEquals(1_000, registry.activeDocumentCount());
+        for (int d = 0; d < 1_000; d++) {
+            disconnect("s" + d);
+        }
+        assertEquals(0, registry.activeDocumentCount());
+    }
+
+    private void connect(String sessionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        registry.onConnect(new SessionConnectEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())));
+    }
+
+    private void disconnect(String sessionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.DISCONNECT);
+        accessor.setSessionId(sessionId);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        registry.onDisconnect(new SessionDisconnectEvent(this, message, sessionId, CloseStatus.NORMAL));
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.example.server.Operation;
+import com.example.server.SyncMessage;
+import com.example.server.CRDTfiles.CRDT;
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.CRDTSnapshot;
+import com.example.server.CRDTfiles.DocumentExecutor;
+import com.example.server.CRDTfiles.DocumentHandle;
+import com.example.server.storage.OperationLog;
+
+class WebSocketControllerTests {
+
+    @TempDir
+    Path directory;
+
+    private final List<Object> sent = new CopyOnWriteArrayList<>();
+    private final List<Message<?>> messages = new CopyOnWriteArrayList<>();
+    private final CRDTManager manager = new CRDTManager(0);
+    private final DocumentExecutor executor = new DocumentExecutor(1);
+    private OperationLog log;
+    private OperationCoalescer coalescer;
+    private CursorThrottle cursorThrottle;
+    private WebSocketController controller;
+
+    @BeforeEach
+    void start() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> {
+            messages.add(message);
+            return sent.add(message.getPayload());
+        });
+        DocumentFanout fanout = new DocumentFanout(template);
+        log = new OperationLog(directory);
+        // No window, so every broadcast is one frame
+        coalescer = new OperationCoalescer(fanout, executor, 0, 256, true);
+        cursorThrottle = new CursorThrottle(fanout, 0);
+        controller = new WebSocketController(template, manager, executor, new SessionRegistry(fanout), log, fanout,
+            coalescer, cursorThrottle, 4096, 1 << 20, 8);
+    }
+
+    @AfterEach
+    void stop() {
+        coalescer.close();
+        cursorThrottle.close();
+        executor.shutdown();
+        log.close();
+    }
+
+    @Test
+    void batchIsAppliedInOrderAndBroadcastAsOneFrame() {
+        String editorCode = (String) manager.CreateDocument().get("editorCode");
+        DocumentHandle document = manager.getDocument(editorCode);
+
+        controller.handleOperations(editorCode, new Operation[] {
+            new Operation("insert", 1, 1, "a", -1, -1),
+            new Operation("insert", 1, 2, "b", 1, 1),
+            new Operation("insert", 1, 3, "c", 1, 2),
+            new Operation("delete", 1, 2, "b", -1, -1),
+        }, null);
+        executor.submit(document.getDocumentKey(), () -> null).join();
+
+        assertEquals("ac", manager.getDocumentText(editorCode));
+        assertEquals(1, sent.size());
+        List<?> frame = (List<?>) sent.get(0);
+        assertEquals(List.of(1L, 2L, 3L, 4L), frame.stream().map(op -> ((Operation) op).getSequence()).toList());
+        assertEquals(4, document.getHistory().lastSequence());
+    }
+
+    @Test
+    void batchFromAViewerSessionIsDroppedWhole() {
+        Map<String, Object> codes = manager.CreateDocument();
+        String editorCode = (String) codes.get("editorCode");
+        DocumentHandle document = manager.getDocument(editorCode);
+        Map<String, Object> viewerSession = Map.of(DocumentSubscriptionInterceptor.ROLES_ATTRIBUTE,
+            Map.of(document.getDocumentKey(), DocumentHandle.Role.VIEWER));
+
+        controller.handleOperations(editorCode, new Operation[] {
+            new Operation("insert", 1, 1, "a", -1, -1),
+        }, viewerSession);
+        controller.handleOperations((String) codes.get("viewerCode"), new Operation[] {
+            new Operation("insert", 1, 1, "a", -1, -1),
+        }, null);
+        executor.submit(document.getDocumentKey(), () -> null).join();
+
+        assertEquals("", manager.getDocumentText(editorCode));
+        assertEquals(List.of(), sent);
+    }
+
+    @Test
+    void operationWithAnIdThatCannotBePackedIsNeitherLoggedNorApplied() {
+        String editorCode = (String) manager.CreateDocument().get("editorCode");
+        DocumentHandle document = manager.getDocument(editorCode);
+
+        controller.handleOperation(editorCode, new Operation("insert", -7, 1, "a", -1, -1), null);
+        controller.handleOperations(editorCode, new Operation[] {
+            new Operation("insert", 1, 1, "a", -1, -1),
+            new Operation("insert", 1, CRDT.CharacterId.MAX_TIMESTAMP, "bc", 1, 1),
+        }, null);
+        executor.submit(document.getDocumentKey(), () -> null).join();
+
+        assertEquals("", manager.getDocumentText(editorCode));
+        assertEquals(0, document.getHistory().lastSequence());
+        assertEquals(List.of(), sent);
+    }
+
+    @Test
+    void undeleteIsAppliedInServerOrderAndAnInsertOfAKnownIdIsNot() {
+        String editorCode = (String) manager.CreateDocument().get("editorCode");
+        DocumentHandle document = manager.getDocument(editorCode);
+
+        controller.handleOperations(editorCode, new Operation[] {
+            new Operation("insert", 1, 1, "abc", -1, -1),
+            new Operation("delete", 1, 2, "b", -1, -1),
+            // Not a revive: the ID is known, so this changes nothing
+            new Operation("insert", 1, 2, "b", -1, -1),
+        }, null);
+        drain(editorCode);
+        assertEquals("ac", manager.getDocumentText(editorCode));
+
+        // An undo racing another user's delete: whichever the server applies last wins
+        controller.handleOperations(editorCode, new Operation[] {
+            new Operation("undelete", 1, 2, "b", -1, -1),
+        }, null);
+        controller.handleOperations(editorCode, new Operation[] {
+            new Operation("delete", 1, 1, "abc", -1, -1),
+        }, null);
+        drain(editorCode);
+        assertEquals("", manager.getDocumentText(editorCode));
+        controller.handleOperations(editorCode, new Operation[] {
+            new Operation("undelete", 1, 2, "b", -1, -1),
+        }, null);
+        drain(editorCode);
+        assertEquals("b", manager.getDocumentText(editorCode));
+        assertEquals(6, document.getHistory().lastSequence());
+    }
+
+    @Test
+    void syncSendsTheMissedOperationsToTheAskingSessionAlone() {
+        String editorCode = type(4);
+
+        controller.handleSync(editorCode, "2", "session-1");
+        drain(editorCode);
+
+        assertEquals(1, messages.size());
+        Message<?> message = messages.get(0);
+        assertEquals("/user/session-1/queue/document/sync", SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        assertEquals("session-1", SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        SyncMessage reply = (SyncMessage) message.getPayload();
+        assertNull(reply.getSnapshot());
+        assertEquals(List.of(3L, 4L), reply.getOperations().stream().map(Operation::getSequence).toList());
+        assertEquals(4, reply.getSequence());
+        assertEquals(true, reply.isLast());
+    }
+
+    @Test
+    void syncFromAnUnparsableSequenceReplaysEverything() {
+        String editorCode = type(4);
+
+        controller.handleSync(editorCode, "not a number", "session-1");
+        drain(editorCode);
+
+        SyncMessage reply = (SyncMessage) sent.get(0);
+        assertNull(reply.getSnapshot());
+        assertEquals(List.of(1L, 2L, 3L, 4L), reply.getOperations().stream().map(Operation::getSequence).toList());
+    }
+
+    @Test
+    void syncFallsBackToASnapshot() {
+        String longDocument = type(10);
+        String shortDocument = type(4);
+        String trimmedDocument = type(4);
+        DocumentHandle trimmed = manager.getDocument(trimmedDocument);
+        executor.submit(trimmed.getDocumentKey(), () -> {
+            trimmed.getHistory().dropOldest(2);
+            return null;
+        }).join();
+
+        // Further behind than the replay threshold of 8
+        controller.handleSync(longDocument, "1", "session-1");
+        // Ahead of the server, e.g. a history from before a restart
+        controller.handleSync(shortDocument, "99", "session-1");
+        // Behind operations the history no longer keeps
+        controller.handleSync(trimmedDocument, "1", "session-1");
+        // One stripe, so this waits for all three
+        drain(longDocument);
+
+        assertEquals(3, sent.size());
+        List<String> codes = List.of(longDocument, shortDocument, trimmedDocument);
+        for (int i = 0; i < codes.size(); i++) {
+            SyncMessage reply = (SyncMessage) sent.get(i);
+            assertEquals(List.of(), reply.getOperations());
+            assertEquals(manager.getDocument(codes.get(i)).getHistory().lastSequence(), reply.getSequence());
+            CRDT snapshot = CRDTSnapshot.read(Base64.getDecoder().decode(reply.getSnapshot()));
+            assertEquals(manager.getDocumentText(codes.get(i)), snapshot.getVisibleString());
+        }
+    }
+
+    /**
+     * A new document with the given number of one-character inserts applied; nothing sent yet
+     */
+    private String type(int count) {
+        String editorCode = (String) manager.CreateDocument().get("editorCode");
+        Operation[] batch = new Operation[count];
+        for (int i = 0; i < count; i++) {
+            batch[i] = new Operation("insert", 1, i + 1, Character.toString('a' + i), i == 0 ? -1 : 1, i);
+        }
+        controller.handleOperations(editorCode, batch, null);
+        drain(editorCode);
+        sent.clear();
+        messages.clear();
+        return editorCode;
+    }
+
+    private void drain(String editorCode) {
+        executor.submit(manager.getDocument(editorCode).getDocumentKey(), () -> null).join();
+    }
+}
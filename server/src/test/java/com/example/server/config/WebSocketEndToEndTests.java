@@ -0,0 +1,120 @@
+package com.example.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.CRDTManager;
+
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+
+/**
+ * Real STOMP sessions over SockJS against the running server, set up like the editor's
+ * client, so frame size limits on either end show up as they would in use
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "collab.oplog.dir=target/test-data/end-to-end/oplog", "collab.store.dir=target/test-data/end-to-end/documents" })
+class WebSocketEndToEndTests {
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    CRDTManager manager;
+
+    private WebSocketStompClient stompClient;
+    private StompSession session;
+    private String editorCode;
+    private final BlockingQueue<Operation[]> received = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void connect() throws Exception {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(WebSocketConfig.MAX_MESSAGE_BYTES);
+        stompClient = new WebSocketStompClient(new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient(container)))));
+        stompClient.setInboundMessageSizeLimit(WebSocketConfig.MAX_MESSAGE_BYTES);
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        session = stompClient.connectAsync("http://localhost:" + port + "/ws", new StompSessionHandlerAdapter() {
+        }).get(10, TimeUnit.SECONDS);
+
+        editorCode = (String) manager.CreateDocument().get("editorCode");
+        session.subscribe("/topic/document/" + editorCode + "/operation", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Operation[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Operation[]) payload);
+            }
+        });
+        // Let the subscription register before anything is broadcast
+        Thread.sleep(300);
+    }
+
+    @AfterEach
+    void disconnect() {
+        if (session.isConnected()) {
+            session.disconnect();
+        }
+        stompClient.stop();
+    }
+
+    @Test
+    void fullPasteSliceGoesThroughWithoutClosingTheSession() throws InterruptedException {
+        // The client's largest slice, in characters that each take two bytes and may be
+        // escaped on the way
+        String slice = "é\"".repeat(4 * 1024);
+        session.send("/app/document/" + editorCode + "/operation", new Operation("insert", 1, 1, slice, -1, -1));
+
+        Operation[] frame = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(frame, "No broadcast; session connected: " + session.isConnected());
+        assertEquals(slice, frame[0].getValue());
+        assertEquals(slice, manager.getDocumentText(editorCode));
+        assertTrue(session.isConnected());
+    }
+
+    @Test
+    void batchAsLargeAsTheClientSendsGoesThroughAsOneFrame() throws InterruptedException {
+        // 128 paste slices, about 1 MB as JSON: more than a client batch carries, so the
+        // server has room to spare
+        String slice = "aé\"".repeat(1536);
+        Operation[] batch = new Operation[128];
+        for (int i = 0; i < batch.length; i++) {
+            long timestamp = 1 + (long) i * slice.length();
+            batch[i] = new Operation("insert", 1, timestamp, slice, i == 0 ? -1 : 1, i == 0 ? -1 : timestamp - 1);
+        }
+        session.send("/app/document/" + editorCode + "/operations", batch);
+
+        Operation[] frame = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(frame, "No broadcast; session connected: " + session.isConnected());
+        assertEquals(128, frame.length);
+        assertEquals(slice.repeat(128), manager.getDocumentText(editorCode));
+        assertTrue(session.isConnected());
+    }
+}
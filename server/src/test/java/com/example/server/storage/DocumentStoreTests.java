@@ -0,0 +1,208 @@
+package com.example.server.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.CRDTSnapshot;
+import com.example.server.CRDTfiles.DocumentExecutor;
+import com.example.server.CRDTfiles.OperationHistory;
+
+class DocumentStoreTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void documentsComeBackAfterARestartFromSnapshotAndLogTail() {
+        Map<String, String> texts = new HashMap<>();
+        int lastUserId;
+        try (Server server = new Server(directory)) {
+            for (int d = 0; d < 5; d++) {
+                HashMap<String, Object> created = server.manager.CreateDocument();
+                String code = (String) created.get("editorCode");
+                type(server, code, 1, "hello from document " + d);
+                if (d % 2 == 0) {
+                    // Half the documents get a snapshot, and then more edits on top of it
+                    server.manager.compact(server.manager.getDocumentKey(code));
+                    type(server, code, 1_000, " and more");
+                    server.apply(code, new Operation("delete", 7, 1, "he", -1, -1));
+                }
+                texts.put(code, server.manager.getDocumentText(code));
+                texts.put((String) created.get("viewerCode"), server.manager.getDocumentText(code));
+            }
+            lastUserId = (int) server.manager.CreateDocument().get("userId");
+        }
+
+        try (Server server = new Server(directory)) {
+            // Codes are known straight away, but nothing is read until it is used
+            texts.keySet().forEach(code -> assertFalse(server.manager.getDocument(code).isLoaded()));
+            texts.forEach((code, text) -> assertEquals(text, server.manager.getDocumentText(code)));
+
+            int joined = (int) server.manager.joinDocument(texts.keySet().iterator().next()).get("userId");
+            assertTrue(joined > lastUserId, "User ID " + joined + " was handed out before");
+        }
+    }
+
+    @Test
+    void startupOnlyReadsTheDocumentThatIsUsed() {
+        List<String> codes = new ArrayList<>();
+        try (Server server = new Server(directory)) {
+            for (int d = 0; d < 200; d++) {
+                String code = (String) server.manager.CreateDocument().get("editorCode");
+                type(server, code, 1, "x".repeat(500));
+                codes.add(code);
+            }
+        }
+        try (Server server = new Server(directory)) {
+            String snapshot = (String) server.manager.joinDocument(codes.get(7)).get("snapshot");
+            assertEquals("x".repeat(500), CRDTSnapshot.read(Base64.getDecoder().decode(snapshot)).getVisibleString());
+            for (int d = 0; d < codes.size(); d++) {
+                assertEquals(d == 7, server.manager.getDocument(codes.get(d)).isLoaded());
+            }
+        }
+    }
+
+    @Test
+    void compactorSnapshotsLongLogsAndTruncatesThem() throws Exception {
+        String code;
+        String text;
+        try (Server server = new Server(directory)) {
+            code = (String) server.manager.CreateDocument().get("editorCode");
+            int key = server.manager.getDocumentKey(code);
+            DocumentExecutor executor = new DocumentExecutor(2);
+            try (LogCompactor compactor = new LogCompactor(server.log, executor, server.manager::compact, 4_096, 60_000)) {
+                // Typed a character at a time, the way the log grows under real editing
+                for (int i = 0; i < 2_000; i++) {
+                    Operation op = new Operation("insert", 3, i + 1, String.valueOf((char) ('a' + i % 26)), i == 0 ? -1 : 3, i);
+                    executor.execute(key, () -> server.apply(code, op));
+                }
+                // Wait for the stripe to drain
+                executor.submit(key, () -> null).join();
+                assertEquals(1, compactor.scan());
+                assertEquals(0, compactor.scan(), "Already queued or done");
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            assertTrue(server.log.pendingBytes(key) < 4_096);
+            assertTrue(Files.exists(directory.resolve("documents/snapshots/" + key + ".snap")));
+            try (Stream<Path> segments = Files.list(directory.resolve("oplog/" + key))) {
+                assertEquals(1, segments.count());
+            }
+            text = server.manager.getDocumentText(code);
+        }
+        try (Server server = new Server(directory)) {
+            assertEquals(text, server.manager.getDocumentText(code));
+        }
+    }
+
+    @Test
+    void sequenceNumbersCarryOnAfterARestart() {
+        String code;
+        try (Server server = new Server(directory, 8)) {
+            code = (String) server.manager.CreateDocument().get("editorCode");
+            // A full history snapshots the document: 12 operations, and a snapshot after the 8th
+            type(server, code, 1, "hello world!");
+            assertEquals(12, server.manager.getDocument(code).getHistory().lastSequence());
+        }
+        try (Server server = new Server(directory, 8)) {
+            OperationHistory history = server.manager.getDocument(code).getHistory();
+            // The log tail behind the snapshot is listed again
+            assertEquals(12, history.lastSequence());
+            assertEquals(9, history.firstSequence());
+            assertEquals("d", history.since(10).get(0).getValue());
+            assertEquals(null, history.since(7), "Only in the snapshot");
+
+            Operation op = new Operation("insert", 7, 13, "?", 7, 12);
+            server.apply(code, op);
+            assertEquals(13, op.getSequence());
+            assertEquals("hello world!?", server.manager.getDocumentText(code));
+        }
+    }
+
+    @Test
+    void lineCutShortByACrashIsDropped() throws IOException {
+        String code;
+        try (Server server = new Server(directory)) {
+            code = (String) server.manager.CreateDocument().get("editorCode");
+        }
+        Files.write(directory.resolve("documents/documents.idx"), "D 9 ABC".getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+
+        try (Server server = new Server(directory)) {
+            assertEquals(1, server.store.documents().size());
+            String next = (String) server.manager.CreateDocument().get("editorCode");
+            assertEquals(code.length(), next.length());
+        }
+        try (Server server = new Server(directory)) {
+            assertEquals(2, server.store.documents().size());
+        }
+    }
+
+    private static void type(Server server, String code, long firstTimestamp, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            long timestamp = firstTimestamp + i;
+            server.apply(code, new Operation("insert", 7, timestamp, String.valueOf(text.charAt(i)),
+                i == 0 ? -1 : 7, i == 0 ? -1 : timestamp - 1));
+        }
+    }
+
+    /**
+     * The storage side of a server, wired like AppConfig
+     */
+    private static final class Server implements AutoCloseable {
+        final OperationLog log;
+        final DocumentStore store;
+        final CRDTManager manager;
+
+        Server(Path directory) {
+            log = new OperationLog(directory.resolve("oplog"));
+            store = new DocumentStore(directory.resolve("documents"), log);
+            manager = new CRDTManager(0, store);
+        }
+
+        Server(Path directory, int historyCapacity) {
+            log = new OperationLog(directory.resolve("oplog"));
+            store = new DocumentStore(directory.resolve("documents"), log);
+            manager = new CRDTManager(0, store, historyCapacity);
+        }
+
+        /**
+         * What the WebSocket controller does with an operation
+         */
+        void apply(String code, Operation op) {
+            manager.record(manager.getDocument(code), op);
+            log.append(manager.getDocumentKey(code), op);
+            if (op.getOp().equals("insert")) {
+                manager.insertRemote(code, op);
+            } else {
+                manager.deleteRemote(code, op);
+            }
+        }
+
+        @Override
+        public void close() {
+            log.close();
+            store.close();
+        }
+    }
+}
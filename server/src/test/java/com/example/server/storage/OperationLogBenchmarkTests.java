@@ -0,0 +1,93 @@
+package com.example.server.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.server.Operation;
+import com.example.server.CRDTfiles.CRDTManager;
+import com.example.server.CRDTfiles.DocumentExecutor;
+
+class OperationLogBenchmarkTests {
+
+    private static final int DOCUMENTS = 64;
+    private static final int OPS_PER_DOCUMENT = 4_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void durabilityKeepsSustainedThroughput() throws Exception {
+        // Warm up both paths before measuring
+        run(null);
+        try (OperationLog log = new OperationLog(directory.resolve("warmup"))) {
+            run(log);
+        }
+
+        double withoutLog = run(null);
+        double withLog;
+        long syncRounds;
+        try (OperationLog log = new OperationLog(directory.resolve("measured"))) {
+            withLog = run(log);
+            syncRounds = log.syncRounds();
+
+            AtomicInteger replayed = new AtomicInteger();
+            for (int key : log.documentKeys()) {
+                log.replay(key, op -> replayed.incrementAndGet());
+            }
+            assertEquals(DOCUMENTS * OPS_PER_DOCUMENT, replayed.get());
+        }
+        System.out.printf("Durability off: %,.0f ops/sec; on: %,.0f ops/sec with %,d group commits for %,d ops%n",
+            withoutLog, withLog, syncRounds, DOCUMENTS * OPS_PER_DOCUMENT);
+
+        // An fsync per operation would cost orders of magnitude; group commit should not
+        assertTrue(withLog > withoutLog / 5, "Logging cut throughput from " + withoutLog + " to " + withLog);
+    }
+
+    /**
+     * Apply a typing stream to many documents on their stripes, logging each operation first
+     * when a log is given, as the WebSocket controller does
+     * @return Operations per second
+     */
+    private static double run(OperationLog log) throws InterruptedException {
+        CRDTManager manager = new CRDTManager(0);
+        List<String> codes = new ArrayList<>();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            codes.add((String) manager.CreateDocument().get("editorCode"));
+        }
+        DocumentExecutor executor = new DocumentExecutor();
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < OPS_PER_DOCUMENT; i++) {
+            for (int d = 0; d < DOCUMENTS; d++) {
+                String code = codes.get(d);
+                int key = manager.getDocumentKey(code);
+                int user = d + 1;
+                Operation op = new Operation("insert", user, i + 1, String.valueOf((char) ('a' + i % 26)),
+                    i == 0 ? -1 : user, i == 0 ? -1 : i);
+                executor.execute(key, () -> {
+                    if (log != null) {
+                        log.append(key, op);
+                    }
+                    manager.insertRemote(code, op);
+                });
+            }
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        if (log != null) {
+            // Only count the run as done once everything is on disk
+            log.sync();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return DOCUMENTS * OPS_PER_DOCUMENT / seconds;
+    }
+}
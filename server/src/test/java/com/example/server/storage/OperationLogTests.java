@@ -0,0 +1,145 @@
+package com.example.server.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.server.Operation;
+
+class OperationLogTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysWhatWasAppendedAcrossSegmentsAndRestarts() {
+        List<Operation> written = new ArrayList<>();
+        // Small segments, so the log rolls over many times
+        try (OperationLog log = new OperationLog(directory, 256, 1)) {
+            for (int i = 0; i < 100; i++) {
+                Operation op = new Operation("insert", 3, i + 1, "é" + i, i == 0 ? -1 : 3, i);
+                log.append(7, op);
+                written.add(op);
+            }
+            log.append(7, new Operation("sync", 3, 0, null, -1, -1));
+        }
+        try (OperationLog log = new OperationLog(directory, 256, 1)) {
+            Operation delete = new Operation("delete", 3, 5, "é4", -1, -1);
+            log.append(7, delete);
+            written.add(delete);
+            log.append(8, delete);
+            Operation undelete = new Operation("undelete", 3, 5, "é4", -1, -1);
+            log.append(7, undelete);
+            written.add(undelete);
+        }
+
+        try (OperationLog log = new OperationLog(directory, 256, 1)) {
+            List<Operation> replayed = new ArrayList<>();
+            log.replay(7, replayed::add);
+            assertEquals(written.size(), replayed.size());
+            for (int i = 0; i < written.size(); i++) {
+                assertSame(written.get(i), replayed.get(i));
+            }
+            assertEquals(List.of(7, 8), log.documentKeys().stream().sorted().toList());
+            assertTrue(segmentsOf(7).size() > 10);
+        }
+    }
+
+    @Test
+    void tornRecordEndsTheLog() throws IOException {
+        try (OperationLog log = new OperationLog(directory)) {
+            for (int i = 0; i < 3; i++) {
+                log.append(1, new Operation("insert", 2, i + 1, "abc", -1, -1));
+            }
+        }
+        // Flip a byte inside the second record's payload, as a crash mid-write would leave it
+        Path segment = segmentsOf(1).get(0);
+        int recordBytes = LogSegment.HEADER_BYTES + 29 + 3;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 42 }), recordBytes + LogSegment.HEADER_BYTES + 2);
+        }
+
+        try (OperationLog log = new OperationLog(directory)) {
+            // Appends after a restart go behind the last intact record and drop what followed it
+            log.append(1, new Operation("delete", 2, 1, "a", -1, -1));
+            List<Operation> replayed = new ArrayList<>();
+            log.replay(1, replayed::add);
+            assertEquals(2, replayed.size());
+            assertEquals("insert", replayed.get(0).getOp());
+            assertEquals("delete", replayed.get(1).getOp());
+        }
+    }
+
+    @Test
+    void groupCommitFlushesInTheBackground() throws InterruptedException {
+        try (OperationLog log = new OperationLog(directory, OperationLog.DEFAULT_SEGMENT_BYTES, 1)) {
+            for (int d = 0; d < 50; d++) {
+                log.append(d, new Operation("insert", 1, 1, "x", -1, -1));
+            }
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (log.syncRounds() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            // No append waited for the disk; the sync thread flushed them on its own
+            assertTrue(log.syncRounds() > 0);
+        }
+    }
+
+    @Test
+    void idleLogsAreUnmappedAndReopenedByTheNextAppend() throws InterruptedException {
+        try (OperationLog log = new OperationLog(directory, 256, 1, 200)) {
+            for (int i = 0; i < 40; i++) {
+                log.append(4, new Operation("insert", 1, i + 1, "ab" + i, -1, -1));
+            }
+            log.sync();
+            // Full segments are unmapped once flushed; only the one being written to stays
+            assertEquals(1, log.mappedSegments());
+            assertEquals(Set.of(4), log.openDocuments());
+
+            // The sync thread closes the log on its own once it has been idle long enough
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!log.openDocuments().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(log.openDocuments().isEmpty());
+            assertEquals(0, log.mappedSegments());
+
+            log.append(4, new Operation("delete", 1, 1, "a", -1, -1));
+            List<Operation> replayed = new ArrayList<>();
+            log.replay(4, replayed::add);
+            assertEquals(41, replayed.size());
+            assertEquals("ab39", replayed.get(39).getValue());
+            assertEquals("delete", replayed.get(40).getOp());
+        }
+    }
+
+    private static void assertSame(Operation expected, Operation actual) {
+        assertEquals(expected.getOp(), actual.getOp());
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getValue(), actual.getValue());
+        assertEquals(expected.getParentID(), actual.getParentID());
+        assertEquals(expected.getParentTimestamp(), actual.getParentTimestamp());
+    }
+
+    private List<Path> segmentsOf(int documentKey) {
+        try (Stream<Path> files = Files.list(directory.resolve(Integer.toString(documentKey)))) {
+            return files.sorted().toList();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}